@@ -0,0 +1,307 @@
+package com.michalklempa.avro.compose.maven;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.michalklempa.avro.compose.Cache;
+import com.michalklempa.avro.compose.Codegen;
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.Discovery;
+import com.michalklempa.avro.compose.Maven;
+import com.michalklempa.avro.compose.SchemaFile;
+import com.michalklempa.avro.compose.Schemas;
+import com.michalklempa.avro.compose.Sources;
+import org.apache.avro.generic.GenericData;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Composes Avro schemas in the build JVM, the same as command line {@code com.michalklempa.avro.compose.Main} does.
+ * <p>
+ * Inputs (size and modification time of every input file), configuration and outputs (size and modification time
+ * of every output file) of the last run are kept in {@link #workDirectory}, when none of them changed, the goal ends
+ * without reading any schema. Inputs on the classpath cannot be stamped, with them the goal always composes.
+ * Otherwise only changed files are parsed again (see {@link Cache}) and only output files with changed content are
+ * written and refreshed in the build context, so plugins running later (resources, compiler) find their inputs up to date.
+ * Output directories are registered as project resources and compile source roots on every run.
+ */
+@Mojo(name = "compose", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class ComposeMojo extends AbstractMojo {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String INPUTS_FILENAME = "inputs.json";
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Component
+    private BuildContext buildContext;
+
+    /**
+     * Input files or directories searched for schema files.
+     */
+    @Parameter(defaultValue = "${project.basedir}/src/main/avro")
+    private List<File> sources;
+
+    /**
+     * File name patterns of schema files in input directories, default: *.avsc, *.json, *.schema
+     */
+    @Parameter
+    private List<String> includes;
+
+    /**
+     * File or directory name patterns skipped in input directories, in addition to hidden files, target and node_modules.
+     */
+    @Parameter
+    private List<String> excludes;
+
+    /**
+     * Directory composed schemas are written to, registered as project resource.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/generated-resources/avro-compose", property = "avro-compose.outputDirectory")
+    private File outputDirectory;
+
+    /**
+     * pretty, oneline, canonical, bundle or referenced, see {@code --output.schemas.format}.
+     */
+    @Parameter(defaultValue = "pretty")
+    private String outputFormat;
+
+    /**
+     * Jinja2 template of output filenames, see {@code --output.schemas.filename.template}.
+     */
+    @Parameter(defaultValue = "{{schema.fullname}}.avsc")
+    private String filenameTemplate;
+
+    /**
+     * When set, Java classes of composed types are generated into this directory, registered as compile source root.
+     */
+    @Parameter
+    private File javaOutputDirectory;
+
+    /**
+     * Java type of Avro strings in generated classes: CharSequence, String or Utf8.
+     */
+    @Parameter(defaultValue = "CharSequence")
+    private String stringType;
+
+    /**
+     * When set, Maven pom with avro-maven-plugin imports in dependency order is written to this file.
+     */
+    @Parameter
+    private File mavenPom;
+
+    /**
+     * Jinja2 template of {@link #mavenPom}, the built-in template when not set.
+     */
+    @Parameter
+    private File mavenTemplate;
+
+    @Parameter(defaultValue = "1", property = "avro-compose.parallelism")
+    private int parallelism;
+
+    /**
+     * Fail before parsing any file, when some files reference undeclared types or depend on each other.
+     */
+    @Parameter(defaultValue = "false", property = "avro-compose.failFast")
+    private boolean failFast;
+
+    /**
+     * Inputs of the last run and parser cache.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/avro-compose", readonly = true)
+    private File workDirectory;
+
+    @Parameter(defaultValue = "false", property = "avro-compose.skip")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping avro-compose.");
+            return;
+        }
+        register();
+
+        List<String> inputs = new ArrayList<>();
+        for (File source : sources) {
+            inputs.add(source.getPath());
+        }
+        List<String> exclude = new ArrayList<>(Discovery.DEFAULT_EXCLUDES);
+        if (excludes != null) {
+            exclude.addAll(excludes);
+        }
+        try {
+            List<String> inputFiles = new Discovery(includes == null || includes.isEmpty() ? Discovery.DEFAULT_INCLUDES : includes, exclude).files(inputs);
+            File inputsFile = new File(workDirectory, INPUTS_FILENAME);
+            ObjectNode current = inputs(inputFiles);
+            if (upToDate(inputsFile, current, inputFiles)) {
+                getLog().info("Nothing to compose, " + inputFiles.size() + " input files, configuration and outputs did not change since the last run.");
+                return;
+            }
+            // state of the last run is invalid until this one succeeds
+            Files.deleteIfExists(inputsFile.toPath());
+
+            Files.createDirectories(workDirectory.toPath());
+            Cache cache = Cache.load(workDirectory.getPath());
+            Map<String, SchemaFile.Parsed> schemas = Compose.builder(inputFiles).parallelism(parallelism).cache(cache).failFast(failFast).build().compose();
+            ObjectNode outputs = current.putObject("outputs");
+            for (File outputFile : output(schemas)) {
+                outputs.set(outputFile.getPath(), stamp(outputFile.toPath()));
+            }
+
+            Schemas.replace(inputsFile.toPath(), OBJECT_MAPPER.writeValueAsBytes(current));
+        } catch (IOException ex) {
+            throw new MojoExecutionException("Cannot compose Avro schemas", ex);
+        } catch (Exception ex) {
+            throw new MojoFailureException("Cannot compose Avro schemas: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Refreshes only files actually written or deleted in the build context.
+     *
+     * @return all output files
+     */
+    private List<File> output(final Map<String, SchemaFile.Parsed> schemas) throws IOException {
+        List<File> outputFiles = new ArrayList<>();
+        Schemas output = new Schemas(schemas, outputDirectory.getPath(), outputFormat, filenameTemplate, parallelism);
+        output.output();
+        for (String outputFile : output.outputFiles()) {
+            outputFiles.add(new File(outputDirectory, outputFile));
+        }
+        for (String outputFile : output.changedFiles()) {
+            buildContext.refresh(new File(outputDirectory, outputFile));
+        }
+
+        if (javaOutputDirectory != null) {
+            Codegen codegen = new Codegen(schemas, javaOutputDirectory.getPath(), workDirectory.getPath(), GenericData.StringType.valueOf(stringType), parallelism, true);
+            codegen.output();
+            for (String source : codegen.sources()) {
+                outputFiles.add(new File(javaOutputDirectory, source));
+            }
+            for (String source : codegen.changedSources()) {
+                buildContext.refresh(new File(javaOutputDirectory, source));
+            }
+        }
+
+        if (mavenPom != null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new Maven(schemas, mavenTemplate()).output(bytes);
+            if (Schemas.replace(mavenPom.toPath(), bytes.toByteArray())) {
+                buildContext.refresh(mavenPom);
+            }
+            outputFiles.add(mavenPom);
+        }
+        return outputFiles;
+    }
+
+    private String mavenTemplate() throws IOException {
+        if (mavenTemplate != null) {
+            return new String(Files.readAllBytes(mavenTemplate.toPath()), StandardCharsets.UTF_8);
+        }
+        try (InputStream is = Maven.class.getClassLoader().getResourceAsStream("mavenTemplate.jinja2.xml")) {
+            return IOUtils.toString(is, "utf-8");
+        }
+    }
+
+    /**
+     * Registers output directories with the project, also when nothing is composed, later plugins need them anyway.
+     */
+    private void register() {
+        Resource resource = new Resource();
+        resource.setDirectory(outputDirectory.getPath());
+        project.addResource(resource);
+        if (javaOutputDirectory != null) {
+            project.addCompileSourceRoot(javaOutputDirectory.getPath());
+        }
+    }
+
+    /**
+     * @param current inputs and configuration of this run
+     * @return whether inputs and configuration are the same as in the last run and its output files were not changed or deleted since
+     */
+    private boolean upToDate(final File inputsFile, final ObjectNode current, final List<String> inputFiles) throws IOException {
+        for (String inputFile : inputFiles) {
+            if (inputFile.startsWith(Sources.CLASSPATH)) {
+                getLog().debug("Input: " + inputFile + " is on the classpath, composing.");
+                return false;
+            }
+        }
+        if (!inputsFile.isFile()) {
+            return false;
+        }
+        ObjectNode last = (ObjectNode) OBJECT_MAPPER.readTree(inputsFile);
+        JsonNode outputs = last.remove("outputs");
+        // compared as written, numbers read back may have narrower types
+        if (outputs == null || !last.toString().equals(current.toString())) {
+            return false;
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> it = outputs.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> output = it.next();
+            if (!output.getValue().toString().equals(stamp(Paths.get(output.getKey())).toString())) {
+                getLog().debug("Output file: " + output.getKey() + " changed since the last run, composing.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return configuration and size and modification time of every input file (and template), equal when nothing changed
+     */
+    private ObjectNode inputs(final List<String> inputFiles) throws IOException {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        ObjectNode configuration = root.putObject("configuration");
+        configuration.put("outputDirectory", outputDirectory.getPath());
+        configuration.put("outputFormat", outputFormat);
+        configuration.put("filenameTemplate", filenameTemplate);
+        configuration.put("javaOutputDirectory", javaOutputDirectory == null ? null : javaOutputDirectory.getPath());
+        configuration.put("stringType", stringType);
+        configuration.put("mavenPom", mavenPom == null ? null : mavenPom.getPath());
+        configuration.put("mavenTemplate", mavenTemplate == null ? null : mavenTemplate.getPath());
+        configuration.put("failFast", failFast);
+        ObjectNode files = root.putObject("files");
+        for (String filename : inputFiles) {
+            // files in archives change together with the archive
+            String file = filename.contains("!") ? filename.substring(0, filename.indexOf('!')) : filename;
+            if (!files.has(file)) {
+                files.set(file, stamp(Paths.get(file)));
+            }
+        }
+        if (mavenTemplate != null) {
+            files.set(mavenTemplate.getPath(), stamp(mavenTemplate.toPath()));
+        }
+        return root;
+    }
+
+    private static JsonNode stamp(final Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return OBJECT_MAPPER.getNodeFactory().nullNode();
+        }
+        return OBJECT_MAPPER.createArrayNode()
+                .add(Files.size(path))
+                .add(Files.getLastModifiedTime(path).toMillis());
+    }
+}
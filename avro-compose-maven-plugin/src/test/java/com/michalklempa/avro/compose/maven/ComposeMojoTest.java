@@ -0,0 +1,203 @@
+package com.michalklempa.avro.compose.maven;
+
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ComposeMojoTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> messages = new ArrayList<>();
+    private final Set<File> refreshed = new HashSet<>();
+    private File input;
+    private File output;
+    private File java;
+    private MavenProject project;
+
+    private static String record(final String fullname, final String fieldType) {
+        return "{\"type\": \"record\", \"name\": \"" + fullname + "\", \"fields\": [{\"name\": \"f\", \"type\": " + fieldType + "}]}";
+    }
+
+    private static void write(final File file, final String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void set(final Object target, final String name, final Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private ComposeMojo mojo() throws Exception {
+        if (input == null) {
+            input = folder.newFolder("avro");
+            output = new File(folder.getRoot(), "target/generated-resources/avro-compose");
+            java = new File(folder.getRoot(), "target/generated-sources/avro-compose");
+            write(new File(input, "b.avsc"), record("ns.B", "\"ns.A\""));
+            write(new File(input, "a.avsc"), record("ns.A", "\"string\""));
+            write(new File(input, "c.avsc"), record("ns.C", "\"int\""));
+        }
+        project = new MavenProject();
+        ComposeMojo mojo = new ComposeMojo();
+        set(mojo, "project", project);
+        set(mojo, "buildContext", new DefaultBuildContext() {
+            @Override
+            public void refresh(final File file) {
+                refreshed.add(file);
+            }
+        });
+        set(mojo, "sources", Collections.singletonList(input));
+        set(mojo, "outputDirectory", output);
+        set(mojo, "outputFormat", "oneline");
+        set(mojo, "filenameTemplate", "{{schema.fullname}}.avsc");
+        set(mojo, "javaOutputDirectory", java);
+        set(mojo, "stringType", "String");
+        set(mojo, "parallelism", 1);
+        set(mojo, "workDirectory", new File(folder.getRoot(), "target/avro-compose"));
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void info(final CharSequence content) {
+                messages.add(content.toString());
+            }
+        });
+        return mojo;
+    }
+
+    @Test
+    public void composesSchemasAndRegistersOutputs() throws Exception {
+        mojo().execute();
+
+        assertTrue(new File(output, "ns.A.avsc").isFile());
+        assertTrue(new String(Files.readAllBytes(new File(output, "ns.B.avsc").toPath()), StandardCharsets.UTF_8).contains("\"name\":\"A\""));
+        assertTrue(new File(java, "ns/B.java").isFile());
+        List<String> resources = new ArrayList<>();
+        for (Resource resource : project.getResources()) {
+            resources.add(resource.getDirectory());
+        }
+        assertEquals(Collections.singletonList(output.getPath()), resources);
+        assertTrue(project.getCompileSourceRoots().contains(java.getPath()));
+    }
+
+    @Test
+    public void unchangedInputsAreNotComposedAgain() throws Exception {
+        mojo().execute();
+        messages.clear();
+
+        mojo().execute();
+        assertTrue(messages.toString(), messages.get(0).startsWith("Nothing to compose, 3 input files"));
+        // outputs are registered also when nothing is composed
+        assertEquals(1, project.getResources().size());
+        assertTrue(project.getCompileSourceRoots().contains(java.getPath()));
+    }
+
+    @Test
+    public void changedInputIsComposedAgain() throws Exception {
+        mojo().execute();
+        File a = new File(input, "a.avsc");
+        write(a, record("ns.A", "\"long\""));
+        assertTrue(a.setLastModified(a.lastModified() + 2000));
+        messages.clear();
+
+        refreshed.clear();
+        mojo().execute();
+        assertTrue(messages.toString(), messages.isEmpty());
+        assertTrue(new String(Files.readAllBytes(new File(output, "ns.B.avsc").toPath()), StandardCharsets.UTF_8).contains("\"long\""));
+        // only files actually written
+        assertEquals(new HashSet<>(Arrays.asList(new File(output, "ns.A.avsc"), new File(output, "ns.B.avsc"),
+                new File(java, "ns/A.java"), new File(java, "ns/B.java"))), refreshed);
+    }
+
+    @Test
+    public void deletedOrEditedOutputsAreComposedAgain() throws Exception {
+        mojo().execute();
+        File schema = new File(output, "ns.A.avsc");
+        String content = new String(Files.readAllBytes(schema.toPath()), StandardCharsets.UTF_8);
+        assertTrue(schema.delete());
+        messages.clear();
+
+        mojo().execute();
+        assertTrue(messages.toString(), messages.isEmpty());
+        assertEquals(content, new String(Files.readAllBytes(schema.toPath()), StandardCharsets.UTF_8));
+
+        File source = new File(java, "ns/C.java");
+        write(source, "edited");
+        messages.clear();
+        refreshed.clear();
+        mojo().execute();
+        assertTrue(messages.toString(), messages.isEmpty());
+        assertTrue(new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8).contains("public class C"));
+        assertEquals(Collections.singleton(source), refreshed);
+    }
+
+    @Test
+    public void classpathInputsAreAlwaysComposed() throws Exception {
+        File resources = folder.newFolder("resources");
+        write(new File(resources, "schemas/d.avsc"), record("ns.D", "\"int\""));
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{resources.toURI().toURL()}, original));
+        try {
+            ComposeMojo mojo = mojo();
+            set(mojo, "sources", Arrays.asList(input, new File("classpath:schemas")));
+            mojo.execute();
+            messages.clear();
+
+            mojo = mojo();
+            set(mojo, "sources", Arrays.asList(input, new File("classpath:schemas")));
+            mojo.execute();
+            assertTrue(messages.toString(), messages.isEmpty());
+            assertTrue(new File(output, "ns.D.avsc").isFile());
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    @Test
+    public void brokenSchemasFailTheBuild() throws Exception {
+        ComposeMojo mojo = mojo();
+        write(new File(input, "c.avsc"), record("ns.C", "\"ns.Missing\""));
+        set(mojo, "failFast", true);
+        try {
+            mojo.execute();
+            fail("Expected the goal to fail");
+        } catch (MojoFailureException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Cannot compose Avro schemas: Dependency problems found"));
+        }
+        assertFalse(new File(output, "ns.A.avsc").exists());
+    }
+
+    @Test
+    public void skippedGoalDoesNothing() throws Exception {
+        ComposeMojo mojo = mojo();
+        set(mojo, "skip", true);
+        mojo.execute();
+
+        assertEquals(Collections.singletonList("Skipping avro-compose."), messages);
+        assertFalse(output.exists());
+        assertTrue(project.getResources().isEmpty());
+    }
+}
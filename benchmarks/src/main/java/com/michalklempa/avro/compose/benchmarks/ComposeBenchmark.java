@@ -0,0 +1,71 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.SchemaFile;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+
+/**
+ * End-to-end {@link Compose#compose()} of generated corpus, including the pre-scan of all files.
+ * Besides ops/s, reports number of parse attempts and files, attempts per file is their ratio.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComposeBenchmark {
+    @Param({"CHAIN", "FAN_IN", "DIAMOND", "NAMESPACES"})
+    public Corpus.Shape shape;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean worstCase;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Corpus corpus;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long attempts;
+        public long files;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logging.quiet();
+        corpus = Corpus.generate(shape, size, worstCase);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public Map<String, SchemaFile.Parsed> compose(final Counters counters) throws Exception {
+        Compose compose = Compose.builder(corpus.files()).parallelism(parallelism).build();
+        Map<String, SchemaFile.Parsed> composed = compose.compose();
+        counters.attempts += compose.attempts();
+        counters.files += corpus.files().size();
+        return composed;
+    }
+}
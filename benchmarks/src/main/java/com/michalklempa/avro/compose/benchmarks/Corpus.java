@@ -0,0 +1,122 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic schema corpora with controllable shape. Every type is a record in its own file,
+ * files are returned in dependency order (dependencies first) or reversed, which is the worst case for the retry loop.
+ */
+public class Corpus {
+    public enum Shape {
+        /**
+         * T0 &lt;- T1 &lt;- ... &lt;- Tn, each type references the previous one
+         */
+        CHAIN,
+        /**
+         * n-1 independent component types and one envelope record referencing all of them
+         */
+        FAN_IN,
+        /**
+         * layers of two types, each referencing both types of the previous layer
+         */
+        DIAMOND,
+        /**
+         * random DAG spread over many namespaces, references inside a namespace are unqualified
+         */
+        NAMESPACES
+    }
+
+    private final File directory;
+    private final List<String> files;
+
+    public Corpus(final File directory, final List<String> files) {
+        this.directory = directory;
+        this.files = files;
+    }
+
+    public static Corpus generate(final Shape shape, final int size, final boolean worstCase) throws IOException {
+        File directory = Files.createTempDirectory("avro-compose-corpus-" + shape.name().toLowerCase() + "-").toFile();
+        Random random = new Random(size);
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String namespace = "com.example.ns" + (shape == Shape.NAMESPACES ? i % 16 : 0);
+            List<String> references = new ArrayList<>();
+            switch (shape) {
+                case CHAIN:
+                    if (i > 0) {
+                        references.add(fullname(shape, i - 1));
+                    }
+                    break;
+                case FAN_IN:
+                    if (i == size - 1) {
+                        for (int j = 0; j < size - 1; j++) {
+                            references.add(fullname(shape, j));
+                        }
+                    }
+                    break;
+                case DIAMOND:
+                    if (i >= 2) {
+                        int previous = (i / 2 - 1) * 2;
+                        references.add(fullname(shape, previous));
+                        references.add(fullname(shape, previous + 1));
+                    }
+                    break;
+                case NAMESPACES:
+                    for (int j = 0; j < Math.min(i, 4); j++) {
+                        int dependency = random.nextInt(i);
+                        String reference = dependency % 16 == i % 16 ? "T" + dependency : fullname(shape, dependency);
+                        if (!references.contains(reference)) {
+                            references.add(reference);
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(shape.name());
+            }
+            File file = new File(directory, String.format("T%06d.avsc", i));
+            FileUtils.write(file, record(namespace, "T" + i, references), StandardCharsets.UTF_8);
+            files.add(file.getPath());
+        }
+        if (worstCase) {
+            Collections.reverse(files);
+        }
+        return new Corpus(directory, files);
+    }
+
+    private static String fullname(final Shape shape, final int i) {
+        return "com.example.ns" + (shape == Shape.NAMESPACES ? i % 16 : 0) + ".T" + i;
+    }
+
+    private static String record(final String namespace, final String name, final List<String> references) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"type\": \"record\",\n  \"name\": \"").append(name).append("\",\n");
+        json.append("  \"namespace\": \"").append(namespace).append("\",\n");
+        json.append("  \"fields\": [\n    {\"name\": \"id\", \"type\": \"long\"}");
+        for (int i = 0; i < references.size(); i++) {
+            json.append(",\n    {\"name\": \"f").append(i).append("\", \"type\": [\"null\", \"").append(references.get(i)).append("\"], \"default\": null}");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    public List<String> files() {
+        return files;
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+}
@@ -0,0 +1,16 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.LoggerFactory;
+
+final class Logging {
+    private Logging() {
+    }
+
+    /**
+     * avro-compose logs at INFO by default, which would be measured as well
+     */
+    static void quiet() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+}
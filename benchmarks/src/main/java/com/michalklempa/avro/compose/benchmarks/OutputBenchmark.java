@@ -0,0 +1,76 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.SchemaFile;
+import com.michalklempa.avro.compose.Schemas;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Schemas#output()} of all types of composed corpus into a temporary directory,
+ * including filename rendering and serializing fully inlined schemas.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+    @Param({"pretty", "oneline", "canonical"})
+    public String format;
+
+    @Param({"CHAIN", "DIAMOND", "NAMESPACES"})
+    public Corpus.Shape shape;
+
+    @Param({"100"})
+    public int size;
+
+    private Corpus corpus;
+    private Map<String, SchemaFile.Parsed> composed;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logging.quiet();
+        corpus = Corpus.generate(shape, size, false);
+        composed = new Compose(corpus.files()).compose();
+    }
+
+    @Setup(Level.Invocation)
+    public void directory() throws Exception {
+        output = Files.createTempDirectory("avro-compose-output-").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void clean() throws Exception {
+        FileUtils.deleteDirectory(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void output() throws Exception {
+        new Schemas(composed, output.getPath(), format, "{{schema.fullname}}.avsc").output();
+    }
+}
@@ -0,0 +1,70 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.Scan;
+import com.michalklempa.avro.compose.SchemaFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single file: streaming pre-scan and Avro parse with all dependencies already composed.
+ * The file measured is the last one in dependency order, e.g. the envelope of FAN_IN corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"CHAIN", "FAN_IN", "DIAMOND", "NAMESPACES"})
+    public Corpus.Shape shape;
+
+    @Param({"100"})
+    public int size;
+
+    private Corpus corpus;
+    private SchemaFile.Attempt attempt;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logging.quiet();
+        corpus = Corpus.generate(shape, size, false);
+        Map<String, SchemaFile.Parsed> composed = new Compose(corpus.files()).compose();
+        String last = corpus.files().get(corpus.files().size() - 1);
+        for (SchemaFile.Parsed parsed : composed.values()) {
+            if (parsed.filename().equals(last)) {
+                attempt = parsed;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public Scan scan() throws Exception {
+        return Scan.file(attempt.filename());
+    }
+
+    @Benchmark
+    public SchemaFile.Parsed parse() throws Exception {
+        return SchemaFile.Factory.parsed(attempt);
+    }
+}
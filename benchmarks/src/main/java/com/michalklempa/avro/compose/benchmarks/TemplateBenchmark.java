@@ -0,0 +1,65 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.SchemaFile;
+import com.michalklempa.avro.compose.TemplateName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering output filenames of all types of composed corpus, as done by {@link com.michalklempa.avro.compose.Schemas}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+    @Param({
+            "{{schema.fullname}}.avsc",
+            "{{ schema.namespace | replace('.', '/') }}/{{ schema.name }}.avsc",
+            "{{ source.basename }}-{{ schema.name | lower }}.avsc"
+    })
+    public String template;
+
+    @Param({"100"})
+    public int size;
+
+    private Corpus corpus;
+    private Map<String, SchemaFile.Parsed> composed;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Logging.quiet();
+        corpus = Corpus.generate(Corpus.Shape.NAMESPACES, size, false);
+        composed = new Compose(corpus.files()).compose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void render(final Blackhole blackhole) {
+        for (Map.Entry<String, SchemaFile.Parsed> entry : composed.entrySet()) {
+            blackhole.consume(new TemplateName(entry.getKey(), entry.getValue(), template).render());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.michalklempa.avro.compose.benchmarks;
+
+import com.michalklempa.avro.compose.Compose;
+import com.michalklempa.avro.compose.SchemaFile;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CorpusTest {
+
+    @Test
+    public void everyShapeComposesInBothOrders() throws Exception {
+        for (Corpus.Shape shape : Corpus.Shape.values()) {
+            for (boolean worstCase : new boolean[]{false, true}) {
+                Corpus corpus = Corpus.generate(shape, 40, worstCase);
+                try {
+                    Map<String, SchemaFile.Parsed> composed = new Compose(corpus.files()).compose();
+                    assertEquals(shape + (worstCase ? " reversed" : ""), 40, composed.size());
+                } finally {
+                    corpus.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void worstCaseListsDependentsFirst() throws Exception {
+        Corpus corpus = Corpus.generate(Corpus.Shape.CHAIN, 3, true);
+        try {
+            assertEquals("T000002.avsc", corpus.files().get(0).substring(corpus.directory().getPath().length() + 1));
+            Compose compose = new Compose(corpus.files());
+            compose.compose();
+            assertEquals(3, compose.attempts());
+        } finally {
+            corpus.delete();
+        }
+    }
+}
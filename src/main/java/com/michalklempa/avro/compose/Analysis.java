@@ -0,0 +1,203 @@
+package com.michalklempa.avro.compose;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Problems of {@link Compose.DependencyGraph} known before any parsing: references no input file declares and
+ * dependency cycles between files, which the parser cannot resolve. Files depending (transitively) on such a problem
+ * cannot be composed either, for every one of them the chain of files leading to the problem is kept.
+ * Undeclared references are reported only when the scanner read all the files, unreadable file may declare anything.
+ */
+public class Analysis {
+    private static Logger logger = LoggerFactory.getLogger(Analysis.class);
+
+    private final Map<String, Set<String>> missing = new LinkedHashMap<>();
+    private final Map<String, List<String>> cycles = new LinkedHashMap<>();
+    private final Map<String, List<String>> chains = new LinkedHashMap<>();
+
+    /**
+     * @param filenames files to analyze, in dependency graph order, other files are taken as composed
+     */
+    public Analysis(final Compose.DependencyGraph dependencyGraph, final Collection<String> filenames) {
+        Set<String> files = new LinkedHashSet<>(filenames);
+        Map<String, Set<String>> dependsOn = new LinkedHashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        boolean scanned = true;
+        for (String filename : files) {
+            scanned &= dependencyGraph.scan(filename) != null;
+            Set<String> dependencies = new LinkedHashSet<>();
+            for (String type : dependencyGraph.requirements(filename)) {
+                String dependency = dependencyGraph.declaredIn(type);
+                if (files.contains(dependency)) {
+                    dependencies.add(dependency);
+                    dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(filename);
+                }
+            }
+            dependsOn.put(filename, dependencies);
+        }
+
+        if (scanned) {
+            for (String filename : files) {
+                if (!dependencyGraph.unresolved(filename).isEmpty()) {
+                    missing.put(filename, dependencyGraph.unresolved(filename));
+                }
+            }
+        } else {
+            logger.debug("Some input files could not be scanned, references to undeclared types are left for parser.");
+        }
+        for (List<String> component : components(files, dependsOn)) {
+            if (component.size() > 1) {
+                for (String filename : component) {
+                    cycles.put(filename, component);
+                }
+            }
+        }
+
+        // breadth first from the problems, every broken file gets the shortest chain
+        Deque<String> queue = new ArrayDeque<>();
+        for (String filename : files) {
+            if (missing.containsKey(filename) || cycles.containsKey(filename)) {
+                List<String> chain = new ArrayList<>();
+                chain.add(filename);
+                chains.put(filename, chain);
+                queue.add(filename);
+            }
+        }
+        while (!queue.isEmpty()) {
+            String filename = queue.poll();
+            for (String dependent : dependents.getOrDefault(filename, new ArrayList<>())) {
+                if (!chains.containsKey(dependent)) {
+                    List<String> chain = new ArrayList<>();
+                    chain.add(dependent);
+                    chain.addAll(chains.get(filename));
+                    chains.put(dependent, chain);
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return chains.isEmpty();
+    }
+
+    /**
+     * @return files, which cannot be composed, files with problems first, then files depending on them
+     */
+    public Set<String> broken() {
+        return chains.keySet();
+    }
+
+    /**
+     * @return one line for every problem found: file referencing undeclared types or files depending on each other
+     */
+    public List<String> problems() {
+        List<String> problems = new ArrayList<>();
+        Set<List<String>> reported = new HashSet<>();
+        for (String filename : chains.keySet()) {
+            if (missing.containsKey(filename)) {
+                problems.add(problem(filename));
+            } else if (cycles.containsKey(filename) && reported.add(cycles.get(filename))) {
+                problems.add(problem(filename));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * @return why the file cannot be composed, e.g. {@code a.avsc -> b.avsc: no input file declares types: [com.example.C]}
+     */
+    public String describe(final String filename) {
+        List<String> chain = chains.get(filename);
+        if (chain == null) {
+            return null;
+        }
+        return String.join(" -> ", chain.subList(0, chain.size() - 1)) + (chain.size() > 1 ? " -> " : "") + problem(chain.get(chain.size() - 1));
+    }
+
+    private String problem(final String filename) {
+        if (missing.containsKey(filename)) {
+            return filename + ": no input file declares types: " + missing.get(filename);
+        }
+        return filename + ": files depend on each other: " + cycles.get(filename);
+    }
+
+    /**
+     * Strongly connected components (Kosaraju), iterative, components and files in them keep the input order.
+     */
+    private static List<List<String>> components(final Set<String> files, final Map<String, Set<String>> dependsOn) {
+        List<String> finished = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (String root : files) {
+            if (!visited.add(root)) {
+                continue;
+            }
+            Deque<String> stack = new ArrayDeque<>();
+            Deque<Iterator<String>> iterators = new ArrayDeque<>();
+            stack.push(root);
+            iterators.push(dependsOn.get(root).iterator());
+            while (!stack.isEmpty()) {
+                if (iterators.peek().hasNext()) {
+                    String next = iterators.peek().next();
+                    if (visited.add(next)) {
+                        stack.push(next);
+                        iterators.push(dependsOn.get(next).iterator());
+                    }
+                } else {
+                    finished.add(stack.pop());
+                    iterators.pop();
+                }
+            }
+        }
+
+        Map<String, List<String>> reversed = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : dependsOn.entrySet()) {
+            for (String dependency : entry.getValue()) {
+                reversed.computeIfAbsent(dependency, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        Map<String, Integer> component = new HashMap<>();
+        int components = 0;
+        for (int i = finished.size() - 1; i >= 0; i--) {
+            String root = finished.get(i);
+            if (component.containsKey(root)) {
+                continue;
+            }
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(root);
+            component.put(root, components);
+            while (!stack.isEmpty()) {
+                for (String dependent : reversed.getOrDefault(stack.pop(), new ArrayList<>())) {
+                    if (!component.containsKey(dependent)) {
+                        component.put(dependent, components);
+                        stack.push(dependent);
+                    }
+                }
+            }
+            components++;
+        }
+
+        List<List<String>> ordered = new ArrayList<>();
+        for (int i = 0; i < components; i++) {
+            ordered.add(new ArrayList<>());
+        }
+        for (String filename : files) {
+            ordered.get(component.get(filename)).add(filename);
+        }
+        return ordered;
+    }
+}
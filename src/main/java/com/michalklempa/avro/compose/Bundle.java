@@ -0,0 +1,180 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single file holding many composed types, written by {@link Schemas} in {@code bundle} format and read by memory mapping it.
+ * <pre>
+ * "AVROBNDL" magic, int version, int count
+ * index, count times: short length + UTF-8 fullname, long offset, int length, long CRC-64-AVRO fingerprint
+ * types in dependency order (dependencies first), each one JSON schema (UTF-8), like oneline format
+ * </pre>
+ * All numbers are big-endian, offsets are from the start of the file. Opening a bundle reads only the index,
+ * {@link #schema(String)} parses just the requested type, once.
+ */
+public class Bundle implements Closeable {
+    private static final byte[] MAGIC = "AVROBNDL".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> index;
+    private final Map<String, Schema> schemas = new ConcurrentHashMap<>();
+
+    private Bundle(final FileChannel channel, final ByteBuffer buffer, final Map<String, Entry> index) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.index = index;
+    }
+
+    public static Bundle open(final Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Bundle: " + path + " is larger than 2 GB");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a bundle: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Bundle: " + path + " has unsupported version: " + version);
+            }
+            int count = buffer.getInt();
+            Map<String, Entry> index = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] fullname = new byte[buffer.getShort() & 0xffff];
+                buffer.get(fullname);
+                Entry entry = new Entry(buffer.getLong(), buffer.getInt(), buffer.getLong());
+                if (entry.offset + entry.length > buffer.limit()) {
+                    throw new IOException("Bundle: " + path + " is truncated");
+                }
+                index.put(new String(fullname, StandardCharsets.UTF_8), entry);
+            }
+            return new Bundle(channel, buffer, index);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return fullnames of all types in the bundle, sorted
+     */
+    public Set<String> types() {
+        return Collections.unmodifiableSet(new TreeMap<>(index).keySet());
+    }
+
+    public boolean contains(final String fullname) {
+        return index.containsKey(fullname);
+    }
+
+    /**
+     * @return CRC-64-AVRO fingerprint of the type, as written in the index, without parsing the type
+     */
+    public long fingerprint(final String fullname) {
+        return entry(fullname).fingerprint;
+    }
+
+    /**
+     * @return JSON of the type, as written in the bundle
+     */
+    public String json(final String fullname) {
+        Entry entry = entry(fullname);
+        byte[] json = new byte[entry.length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) entry.offset);
+        slice.get(json);
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return parsed type, parsed on the first call only
+     */
+    public Schema schema(final String fullname) {
+        return schemas.computeIfAbsent(fullname, t -> new Schema.Parser().parse(json(t)));
+    }
+
+    private Entry entry(final String fullname) {
+        Entry entry = index.get(fullname);
+        if (entry == null) {
+            throw new IllegalArgumentException("Type: " + fullname + " is not in the bundle");
+        }
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param types types to write, by fullname
+     * @return bundle file content
+     */
+    public static byte[] write(final Map<String, SchemaFile.Parsed> types) throws IOException {
+        List<String> order = References.order(types);
+        List<byte[]> names = new ArrayList<>();
+        List<byte[]> jsons = new ArrayList<>();
+        long offset = MAGIC.length + 4 + 4;
+        for (String type : order) {
+            byte[] name = type.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            jsons.add(types.get(type).types().get(type).toString(false).getBytes(StandardCharsets.UTF_8));
+            offset += 2 + name.length + 8 + 4 + 8;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bytes);
+        os.write(MAGIC);
+        os.writeInt(VERSION);
+        os.writeInt(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            os.writeShort(names.get(i).length);
+            os.write(names.get(i));
+            os.writeLong(offset);
+            os.writeInt(jsons.get(i).length);
+            os.writeLong(Long.parseUnsignedLong(types.get(order.get(i)).fingerprint(order.get(i)).crc64(), 16));
+            offset += jsons.get(i).length;
+        }
+        for (byte[] json : jsons) {
+            os.write(json);
+        }
+        os.flush();
+        return bytes.toByteArray();
+    }
+
+    private static class Entry {
+        private final long offset;
+        private final int length;
+        private final long fingerprint;
+
+        Entry(final long offset, final int length, final long fingerprint) {
+            this.offset = offset;
+            this.length = length;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk cache of composition results between runs, keyed by SHA-256 of input file content.
+ * For every successfully parsed file we store its declared types, scanned references, dependencies
+ * and JSON of its own types, with types of dependencies referred to by name (see {@link References#json(org.apache.avro.Schema, Set, boolean)}).
+ * File is clean, when its content hash and hashes of all its (transitive) dependencies did not change,
+ * such file is not read, not scanned and not queued for composition, its types are parsed lazily from the stored JSON,
+ * see {@link SchemaFile.CachedSchemaFile}. Plain files with the size and modification time stored are not even hashed, the same as make does.
+ */
+public class Cache {
+    private static final String CACHE_FILENAME = "avro-compose-cache.json";
+    private static final int VERSION = 2;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static Logger logger = LoggerFactory.getLogger(Cache.class);
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    private boolean changed;
+
+    public Cache(final File file, final Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    public static Cache load(final String directory) throws IOException {
+        File file = new File(directory, CACHE_FILENAME);
+        Map<String, Entry> entries = new HashMap<>();
+        if (file.isFile()) {
+            JsonNode root = OBJECT_MAPPER.readTree(file);
+            if (root.path("version").asInt() == VERSION) {
+                for (JsonNode node : root.path("files")) {
+                    Entry entry = Entry.fromJson(node);
+                    entries.put(entry.filename, entry);
+                }
+            } else {
+                logger.info("Cache file: {} has different version, ignoring it.", file);
+            }
+        }
+        logger.debug("Loaded cache file: {} with {} entries", file, entries.size());
+        return new Cache(file, entries);
+    }
+
+    /**
+     * @return files, which did not change since the last run, including their dependencies, by file name
+     */
+    public Map<String, SchemaFile.Parsed> clean(final Collection<String> filenames, final Compose.Contents contents) throws IOException {
+        Map<String, SchemaFile.Parsed> clean = new LinkedHashMap<>();
+        Set<String> dirty = new HashSet<>();
+        Set<String> inputs = new HashSet<>(filenames);
+        for (String filename : filenames) {
+            clean(filename, inputs, contents, clean, dirty);
+        }
+        logger.info("Cache: {} files unchanged, {} files to parse", clean.size(), inputs.size() - clean.size());
+        return clean;
+    }
+
+    private SchemaFile.Parsed clean(final String filename, final Set<String> inputs, final Compose.Contents contents, final Map<String, SchemaFile.Parsed> clean, final Set<String> dirty) throws IOException {
+        if (clean.containsKey(filename)) {
+            return clean.get(filename);
+        }
+        if (dirty.contains(filename)) {
+            return null;
+        }
+        // mark first, dependency cycles end up dirty
+        dirty.add(filename);
+        Entry entry = entries.get(filename);
+        if (entry == null || !inputs.contains(filename) || !unchanged(entry, contents)) {
+            return null;
+        }
+        Set<SchemaFile.Parsed> dependencies = new LinkedHashSet<>();
+        for (String dependency : entry.dependencies) {
+            SchemaFile.Parsed parsed = clean(dependency, inputs, contents, clean, dirty);
+            if (parsed == null) {
+                logger.trace("File: {} is unchanged, but its dependency {} is not.", filename, dependency);
+                return null;
+            }
+            dependencies.add(parsed);
+        }
+        dirty.remove(filename);
+        SchemaFile.Parsed parsed = SchemaFile.Factory.cached(filename, dependencies, entry.declarations, entry.schema);
+        clean.put(filename, parsed);
+        return parsed;
+    }
+
+    private boolean unchanged(final Entry entry, final Compose.Contents contents) throws IOException {
+        File file = new File(entry.filename);
+        if (file.isFile() && file.length() == entry.length && file.lastModified() == entry.modified) {
+            return true;
+        }
+        if (!entry.hash.equals(contents.hash(entry.filename))) {
+            return false;
+        }
+        // touched, but the same content, keep the new size and time, so the file is not hashed next time
+        changed = true;
+        entries.put(entry.filename, new Entry(entry.filename, entry.hash, file.isFile() ? file.length() : -1, file.lastModified(), entry.declarations, entry.references, entry.dependencies, entry.schema));
+        return true;
+    }
+
+    /**
+     * @return scan of the file, as stored in the cache
+     */
+    public Scan scan(final String filename) {
+        Entry entry = entries.get(filename);
+        return new Scan(filename, entry.declarations, entry.references);
+    }
+
+    /**
+     * Stores parsed file, files restored from cache are kept as they are, not even hashed.
+     */
+    public void update(final SchemaFile.Parsed parsed, final Scan scan, final Compose.Contents contents) throws IOException {
+        if (parsed instanceof SchemaFile.CachedSchemaFile || scan == null) {
+            return;
+        }
+        String hash = contents.hash(parsed.filename());
+        List<String> dependencies = new ArrayList<>();
+        for (SchemaFile.Parsed dependency : parsed.dependencies()) {
+            dependencies.add(dependency.filename());
+        }
+        File file = new File(parsed.filename());
+        changed = true;
+        entries.put(parsed.filename(), new Entry(parsed.filename(), hash, file.isFile() ? file.length() : -1, file.lastModified(), parsed.declarations(), scan.references(), dependencies,
+                References.json(parsed.schema(), parsed.declarations(), false)));
+    }
+
+    public void invalidate(final Collection<String> filenames) {
+        changed |= entries.keySet().removeAll(filenames);
+    }
+
+    public void retain(final Collection<String> filenames) {
+        changed |= entries.keySet().retainAll(new HashSet<>(filenames));
+    }
+
+    /**
+     * Writes the cache file, unless nothing changed since it was loaded.
+     */
+    public void save() throws IOException {
+        if (!changed && file.isFile()) {
+            logger.debug("Cache file: {} is up to date", file);
+            return;
+        }
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        root.put("version", VERSION);
+        ArrayNode files = root.putArray("files");
+        for (Entry entry : entries.values()) {
+            files.add(entry.toJson());
+        }
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        OBJECT_MAPPER.writeValue(temporary, root);
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+        logger.debug("Saved cache file: {} with {} entries", file, entries.size());
+    }
+
+    public static String sha256(final byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static class Entry {
+        private final String filename;
+        private final String hash;
+        private final long length;
+        private final long modified;
+        private final Set<String> declarations;
+        private final List<Scan.Reference> references;
+        private final List<String> dependencies;
+        private final String schema;
+
+        /**
+         * @param length size of plain file, -1 for entries of archives and classpath, which are always hashed
+         * @param schema JSON of the types declared by the file, see {@link References#json(org.apache.avro.Schema, Set, boolean)}
+         */
+        public Entry(final String filename, final String hash, final long length, final long modified, final Set<String> declarations, final List<Scan.Reference> references, final List<String> dependencies, final String schema) {
+            this.filename = filename;
+            this.hash = hash;
+            this.length = length;
+            this.modified = modified;
+            this.declarations = declarations;
+            this.references = references;
+            this.dependencies = dependencies;
+            this.schema = schema;
+        }
+
+        ObjectNode toJson() {
+            ObjectNode node = OBJECT_MAPPER.createObjectNode();
+            node.put("filename", filename);
+            node.put("hash", hash);
+            node.put("length", length);
+            node.put("modified", modified);
+            ArrayNode declarationsNode = node.putArray("declarations");
+            declarations.forEach(declarationsNode::add);
+            ArrayNode referencesNode = node.putArray("references");
+            for (Scan.Reference reference : references) {
+                ObjectNode referenceNode = referencesNode.addObject();
+                referenceNode.put("name", reference.name());
+                ArrayNode candidatesNode = referenceNode.putArray("candidates");
+                reference.candidates().forEach(candidatesNode::add);
+            }
+            ArrayNode dependenciesNode = node.putArray("dependencies");
+            dependencies.forEach(dependenciesNode::add);
+            node.put("schema", schema);
+            return node;
+        }
+
+        static Entry fromJson(final JsonNode node) {
+            Set<String> declarations = new LinkedHashSet<>();
+            node.path("declarations").forEach(declaration -> declarations.add(declaration.asText()));
+            List<Scan.Reference> references = new ArrayList<>();
+            for (JsonNode referenceNode : node.path("references")) {
+                List<String> candidates = new ArrayList<>();
+                referenceNode.path("candidates").forEach(candidate -> candidates.add(candidate.asText()));
+                references.add(new Scan.Reference(referenceNode.path("name").asText(), candidates));
+            }
+            List<String> dependencies = new ArrayList<>();
+            node.path("dependencies").forEach(dependency -> dependencies.add(dependency.asText()));
+            return new Entry(node.path("filename").asText(), node.path("hash").asText(), node.path("length").asLong(-1), node.path("modified").asLong(), declarations, references, dependencies,
+                    node.path("schema").asText());
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.avro.Protocol;
+import org.apache.avro.Schema;
+import org.apache.avro.compiler.specific.SpecificCompiler;
+import org.apache.avro.generic.GenericData;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates Java classes of composed types with Avro {@link SpecificCompiler}, one class per type, in parallel,
+ * straight from the composed schemas, without parsing them again. Types to generate are split into one batch per thread,
+ * every batch is compiled once (with the named types it references) into its own temporary directory.
+ * Generated sources are written only when their content changed. Fingerprint of every type's schema is kept
+ * in the cache directory, not among the sources, types with the same fingerprint as in the last run, whose source was not
+ * changed or deleted since (by size and modification time), are not generated at all,
+ * sources of types no longer composed are deleted (when all the types are given).
+ */
+public class Codegen {
+    private static final String STATE_FILENAME = "avro-compose-codegen.json";
+    // kept in the output directory by earlier versions, where it ended up in source jars
+    private static final String LEGACY_STATE_FILENAME = ".avro-compose-codegen.json";
+    private static final int VERSION = 3;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // protocol holding a batch of types, its (empty) interface is generated as well and ignored,
+    // the name is changed when a composed type in the null namespace has it
+    private static final String BATCH_PROTOCOL = "AvroComposeCodegenBatch";
+    private static Logger logger = LoggerFactory.getLogger(Codegen.class);
+
+    private Map<String, SchemaFile.Parsed> schemas;
+    private String outputDirectory;
+    private String cacheDirectory;
+    private GenericData.StringType stringType;
+    private int parallelism;
+    private boolean prune;
+    private final Set<String> sources = new TreeSet<>();
+    private final Set<String> changedSources = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param cacheDirectory where fingerprints of generated types are kept between runs, null to generate all the types every time
+     *                       and never delete sources
+     * @param prune          delete sources of types generated before, which are not given now, use only when all the types are given
+     */
+    public Codegen(final Map<String, SchemaFile.Parsed> schemas, final String outputDirectory, final String cacheDirectory, final GenericData.StringType stringType, final int parallelism, final boolean prune) {
+        this.schemas = schemas;
+        this.outputDirectory = outputDirectory;
+        this.cacheDirectory = cacheDirectory;
+        this.stringType = stringType;
+        this.parallelism = parallelism;
+        this.prune = prune;
+    }
+
+    public void output() throws IOException {
+        Files.deleteIfExists(new File(outputDirectory, LEGACY_STATE_FILENAME).toPath());
+        File stateFile = cacheDirectory == null ? null : new File(cacheDirectory, STATE_FILENAME);
+        Map<String, Generated> previous = load(stateFile);
+        String protocol = protocol();
+        Map<String, Generated> generated = new ConcurrentHashMap<>();
+        AtomicInteger written = new AtomicInteger();
+        int skipped = 0;
+        int pending = 0;
+
+        int threads = Math.max(1, parallelism);
+        List<Map<String, String>> batches = new ArrayList<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : new TreeMap<>(schemas).entrySet()) {
+            Schema schema = entry.getValue().types().get(entry.getKey());
+            String fingerprint = Cache.sha256(schema.toString(false).getBytes(StandardCharsets.UTF_8));
+            Generated last = previous.get(entry.getKey());
+            if (last != null && last.fingerprint.equals(fingerprint) && last.stamp.equals(stamp(last.path))) {
+                generated.put(entry.getKey(), last);
+                skipped++;
+                continue;
+            }
+            if (batches.size() < threads) {
+                batches.add(new TreeMap<>());
+            }
+            batches.get(pending++ % threads).put(entry.getKey(), fingerprint);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> batches.parallelStream().forEach(batch -> {
+                try {
+                    for (Map.Entry<String, Generated> next : generate(protocol, batch).entrySet()) {
+                        if (Schemas.replace(new File(outputDirectory, next.getValue().path).toPath(), next.getValue().contents.getBytes(StandardCharsets.UTF_8))) {
+                            changedSources.add(next.getValue().path);
+                            written.incrementAndGet();
+                        }
+                        generated.put(next.getKey(), new Generated(next.getValue().fingerprint, next.getValue().path, null, stamp(next.getValue().path)));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException("Code generation failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Set<String> paths = new HashSet<>();
+        for (Generated next : generated.values()) {
+            paths.add(next.path);
+        }
+        sources.addAll(paths);
+        for (Map.Entry<String, Generated> entry : previous.entrySet()) {
+            if (generated.containsKey(entry.getKey()) || paths.contains(entry.getValue().path)) {
+                continue;
+            }
+            if (prune) {
+                logger.debug("Type: {} is not composed any more, deleting: {}", entry.getKey(), entry.getValue().path);
+                if (Files.deleteIfExists(new File(outputDirectory, entry.getValue().path).toPath())) {
+                    changedSources.add(entry.getValue().path);
+                }
+            } else {
+                generated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (stateFile != null) {
+            save(stateFile, generated);
+        }
+        logger.info("Java sources: {} written, {} unchanged, {} skipped by fingerprint.", written.get(), generated.size() - written.get() - skipped, skipped);
+    }
+
+    /**
+     * @return sources of the given types, relative to output directory
+     */
+    public Set<String> sources() {
+        return new TreeSet<>(sources);
+    }
+
+    /**
+     * @return sources actually written or deleted by {@link #output()}, relative to output directory
+     */
+    public Set<String> changedSources() {
+        return new TreeSet<>(changedSources);
+    }
+
+    /**
+     * @return name of the batch protocol, which is not a fullname of any composed type
+     */
+    private String protocol() {
+        String name = BATCH_PROTOCOL;
+        for (int i = 1; schemas.containsKey(name); i++) {
+            name = BATCH_PROTOCOL + i;
+        }
+        return name;
+    }
+
+    /**
+     * @param name  name of the batch protocol, see {@link #protocol()}
+     * @param batch fingerprints of types to generate, by fullname
+     * @return generated sources of the types, by fullname
+     */
+    private Map<String, Generated> generate(final String name, final Map<String, String> batch) throws IOException {
+        List<Schema> types = new ArrayList<>();
+        for (String type : batch.keySet()) {
+            types.add(schemas.get(type).types().get(type));
+        }
+        Protocol protocol = new Protocol(name, null);
+        protocol.setTypes(types);
+        SpecificCompiler compiler = new SpecificCompiler(protocol);
+        compiler.setStringType(stringType);
+
+        Path directory = Files.createTempDirectory("avro-compose-codegen");
+        try {
+            try {
+                compiler.compileToDestination(null, directory.toFile());
+            } catch (IOException | RuntimeException ex) {
+                throw new IOException("Cannot generate Java classes of types: " + batch.keySet(), ex);
+            }
+            Map<String, Generated> generated = new TreeMap<>();
+            for (Schema schema : types) {
+                String path = path(schema);
+                String contents = new String(Files.readAllBytes(directory.resolve(path)), StandardCharsets.UTF_8);
+                generated.put(schema.getFullName(), new Generated(batch.get(schema.getFullName()), path, contents, null));
+            }
+            return generated;
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    /**
+     * @return source file of the type relative to output directory, as {@link SpecificCompiler} names it
+     */
+    private static String path(final Schema schema) {
+        String name = SpecificCompiler.mangle(schema.getName());
+        String namespace = schema.getNamespace();
+        if (namespace == null || namespace.isEmpty()) {
+            return name + ".java";
+        }
+        return namespace.replace('.', File.separatorChar) + File.separatorChar + name + ".java";
+    }
+
+    /**
+     * @return types generated by the last run, nothing when it was run with different settings or output directory
+     */
+    private Map<String, Generated> load(final File stateFile) throws IOException {
+        Map<String, Generated> generated = new HashMap<>();
+        if (stateFile != null && stateFile.isFile()) {
+            JsonNode root = OBJECT_MAPPER.readTree(stateFile);
+            if (root.path("version").asInt() == VERSION && stringType.name().equals(root.path("stringType").asText())
+                    && outputDirectory().equals(root.path("outputDirectory").asText())) {
+                for (Iterator<Map.Entry<String, JsonNode>> it = root.path("types").fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> entry = it.next();
+                    generated.put(entry.getKey(), new Generated(entry.getValue().path("fingerprint").asText(), entry.getValue().path("path").asText(), null,
+                            entry.getValue().path("stamp").asText()));
+                }
+            } else {
+                logger.info("Code generation state: {} has different version or settings, generating all types.", stateFile);
+            }
+        }
+        return generated;
+    }
+
+    private void save(final File stateFile, final Map<String, Generated> generated) throws IOException {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        root.put("version", VERSION);
+        root.put("stringType", stringType.name());
+        root.put("outputDirectory", outputDirectory());
+        ObjectNode types = root.putObject("types");
+        for (Map.Entry<String, Generated> entry : new TreeMap<>(generated).entrySet()) {
+            ObjectNode type = types.putObject(entry.getKey());
+            type.put("fingerprint", entry.getValue().fingerprint);
+            type.put("path", entry.getValue().path);
+            type.put("stamp", entry.getValue().stamp);
+        }
+        Files.createDirectories(stateFile.getAbsoluteFile().getParentFile().toPath());
+        Schemas.replace(stateFile.toPath(), OBJECT_MAPPER.writeValueAsBytes(root));
+    }
+
+    /**
+     * @return size and modification time of the source, empty when it does not exist
+     */
+    private String stamp(final String path) throws IOException {
+        Path source = new File(outputDirectory, path).toPath();
+        if (!Files.isRegularFile(source)) {
+            return "";
+        }
+        return Files.size(source) + " " + Files.getLastModifiedTime(source).toMillis();
+    }
+
+    private String outputDirectory() {
+        return new File(outputDirectory).getAbsolutePath();
+    }
+
+    private static class Generated {
+        private final String fingerprint;
+        private final String path;
+        private final String contents;
+        private final String stamp;
+
+        Generated(final String fingerprint, final String path, final String contents, final String stamp) {
+            this.fingerprint = fingerprint;
+            this.path = path;
+            this.contents = contents;
+            this.stamp = stamp;
+        }
+    }
+}
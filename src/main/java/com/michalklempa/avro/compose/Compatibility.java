@@ -0,0 +1,410 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks composed types against the same types of a baseline (previous release), with Avro {@link SchemaCompatibility}, in parallel.
+ * Types are compared by SHA-256 of their full JSON: identical types are not checked at all, results of checks are kept
+ * in the cache directory by (baseline fingerprint, new fingerprint), so only types changed since the last run are checked.
+ * Full JSON is used instead of Parsing Canonical Form, defaults and aliases decide compatibility as well.
+ */
+public class Compatibility {
+    private static final String CACHE_FILENAME = "avro-compose-compatibility.json";
+    private static final int VERSION = 1;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static Logger logger = LoggerFactory.getLogger(Compatibility.class);
+
+    public enum Level {
+        /**
+         * new schema reads data written with baseline schema
+         */
+        BACKWARD,
+        /**
+         * baseline schema reads data written with new schema
+         */
+        FORWARD,
+        FULL
+    }
+
+    public enum Status {
+        UNCHANGED, COMPATIBLE, INCOMPATIBLE, ADDED
+    }
+
+    private Baseline baseline;
+    private Level level;
+    private String cacheDirectory;
+    private int parallelism;
+
+    /**
+     * @param cacheDirectory where results are kept between runs, null for no cache
+     */
+    public Compatibility(final Baseline baseline, final Level level, final String cacheDirectory, final int parallelism) {
+        this.baseline = baseline;
+        this.level = level;
+        this.cacheDirectory = cacheDirectory;
+        this.parallelism = parallelism;
+    }
+
+    public Report check(final Map<String, SchemaFile.Parsed> schemas) throws IOException {
+        File cacheFile = cacheDirectory == null ? null : new File(cacheDirectory, CACHE_FILENAME);
+        Map<String, Result> cached = load(cacheFile);
+        Map<String, Result> used = new ConcurrentHashMap<>();
+        Map<String, Result> results = new ConcurrentHashMap<>();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.submit(() -> new TreeMap<>(schemas).entrySet().parallelStream().forEach(entry -> {
+                Schema schema = entry.getValue().types().get(entry.getKey());
+                results.put(entry.getKey(), check(entry.getKey(), schema, cached, used));
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException("Compatibility check failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        if (cacheFile != null) {
+            save(cacheFile, used);
+        }
+        Set<String> removed = new TreeSet<>(baseline.types());
+        removed.removeAll(schemas.keySet());
+        Report report = new Report(level, results, removed);
+        logger.info("Compatibility {} with baseline: {} types, {} unchanged, {} checked ({} from cache), {} added, {} removed, {} incompatible.",
+                level, results.size(), report.count(Status.UNCHANGED), report.count(Status.COMPATIBLE) + report.count(Status.INCOMPATIBLE), report.cached(),
+                report.count(Status.ADDED), removed.size(), report.count(Status.INCOMPATIBLE));
+        return report;
+    }
+
+    private Result check(final String type, final Schema schema, final Map<String, Result> cached, final Map<String, Result> used) {
+        if (!baseline.contains(type)) {
+            return new Result(Status.ADDED, false, Collections.emptyList());
+        }
+        String fingerprint = fingerprint(schema);
+        String baselineFingerprint = baseline.fingerprint(type);
+        if (baselineFingerprint.equals(fingerprint)) {
+            return new Result(Status.UNCHANGED, false, Collections.emptyList());
+        }
+        String key = level + " " + baselineFingerprint + " " + fingerprint;
+        Result result = cached.get(key);
+        if (result != null) {
+            used.put(key, result);
+            return new Result(result.status, true, result.messages);
+        }
+        result = used.computeIfAbsent(key, k -> compare(type, baseline.schema(type), schema));
+        logger.debug("Type: {} is {} with baseline", type, result.status);
+        return result;
+    }
+
+    private Result compare(final String type, final Schema old, final Schema schema) {
+        List<String> messages = new ArrayList<>();
+        if (level != Level.FORWARD) {
+            incompatibilities("BACKWARD", SchemaCompatibility.checkReaderWriterCompatibility(schema, old), messages);
+        }
+        if (level != Level.BACKWARD) {
+            incompatibilities("FORWARD", SchemaCompatibility.checkReaderWriterCompatibility(old, schema), messages);
+        }
+        if (!messages.isEmpty()) {
+            logger.warn("Type: {} is not {} compatible with baseline: {}", type, level, messages);
+        }
+        return new Result(messages.isEmpty() ? Status.COMPATIBLE : Status.INCOMPATIBLE, false, messages);
+    }
+
+    private static void incompatibilities(final String direction, final SchemaCompatibility.SchemaPairCompatibility compatibility, final List<String> messages) {
+        for (SchemaCompatibility.Incompatibility incompatibility : compatibility.getResult().getIncompatibilities()) {
+            messages.add(direction + " " + incompatibility.getType() + " at " + incompatibility.getLocation() + ": " + incompatibility.getMessage());
+        }
+    }
+
+    static String fingerprint(final Schema schema) {
+        return Cache.sha256(schema.toString(false).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Result> load(final File cacheFile) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        if (cacheFile != null && cacheFile.isFile()) {
+            JsonNode root = OBJECT_MAPPER.readTree(cacheFile);
+            if (root.path("version").asInt() == VERSION) {
+                for (Iterator<Map.Entry<String, JsonNode>> it = root.path("results").fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> entry = it.next();
+                    List<String> messages = new ArrayList<>();
+                    entry.getValue().path("messages").forEach(message -> messages.add(message.asText()));
+                    results.put(entry.getKey(), new Result(messages.isEmpty() ? Status.COMPATIBLE : Status.INCOMPATIBLE, false, messages));
+                }
+            } else {
+                logger.info("Compatibility cache: {} has different version, ignoring it.", cacheFile);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Keeps only results used by this run, the cache does not grow with every change of every type.
+     */
+    private static void save(final File cacheFile, final Map<String, Result> results) throws IOException {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        root.put("version", VERSION);
+        ObjectNode entries = root.putObject("results");
+        for (Map.Entry<String, Result> entry : new TreeMap<>(results).entrySet()) {
+            entry.getValue().messages.forEach(entries.putObject(entry.getKey()).putArray("messages")::add);
+        }
+        Files.createDirectories(cacheFile.getAbsoluteFile().getParentFile().toPath());
+        Schemas.replace(cacheFile.toPath(), OBJECT_MAPPER.writeValueAsBytes(root));
+    }
+
+    private static class Result {
+        private final Status status;
+        private final boolean cached;
+        private final List<String> messages;
+
+        Result(final Status status, final boolean cached, final List<String> messages) {
+            this.status = status;
+            this.cached = cached;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * Results of all composed types, sorted by fullname, and baseline types not composed any more.
+     */
+    public static class Report {
+        private final Level level;
+        private final Map<String, Result> results;
+        private final Set<String> removed;
+
+        Report(final Level level, final Map<String, Result> results, final Set<String> removed) {
+            this.level = level;
+            this.results = new TreeMap<>(results);
+            this.removed = removed;
+        }
+
+        public int count(final Status status) {
+            return (int) results.values().stream().filter(result -> result.status == status).count();
+        }
+
+        public int cached() {
+            return (int) results.values().stream().filter(result -> result.cached).count();
+        }
+
+        /**
+         * @return types not compatible with the baseline
+         */
+        public Set<String> incompatible() {
+            Set<String> incompatible = new TreeSet<>();
+            results.forEach((type, result) -> {
+                if (result.status == Status.INCOMPATIBLE) {
+                    incompatible.add(type);
+                }
+            });
+            return incompatible;
+        }
+
+        public void output(final OutputStream os) throws IOException {
+            ObjectNode root = OBJECT_MAPPER.createObjectNode();
+            root.put("level", level.name());
+            root.put("types", results.size());
+            for (Status status : Status.values()) {
+                root.put(status.name().toLowerCase(), count(status));
+            }
+            root.put("cached", cached());
+            removed.forEach(root.putArray("removed")::add);
+            ArrayNode details = root.putArray("details");
+            for (Map.Entry<String, Result> entry : results.entrySet()) {
+                ObjectNode node = details.addObject();
+                node.put("type", entry.getKey());
+                node.put("status", entry.getValue().status.name());
+                node.put("cached", entry.getValue().cached);
+                entry.getValue().messages.forEach(node.putArray("messages")::add);
+            }
+            OBJECT_MAPPER.writeValue(os, root);
+            os.write('\n');
+        }
+    }
+
+    /**
+     * Types of the previous release: a {@link Bundle} or a directory of schema files written by an earlier run,
+     * in any format. Every JSON document of the files is parsed after documents declaring the types it refers to.
+     */
+    public abstract static class Baseline implements Closeable {
+        public abstract Set<String> types();
+
+        public boolean contains(final String type) {
+            return types().contains(type);
+        }
+
+        /**
+         * @return SHA-256 of the full JSON of the type
+         */
+        public abstract String fingerprint(String type);
+
+        public abstract Schema schema(String type);
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        public static Baseline open(final String path) throws IOException {
+            Path root = Paths.get(path);
+            if (Files.isDirectory(root)) {
+                return directory(root);
+            }
+            Bundle bundle = Bundle.open(root);
+            return new Baseline() {
+                @Override
+                public Set<String> types() {
+                    return bundle.types();
+                }
+
+                @Override
+                public boolean contains(final String type) {
+                    return bundle.contains(type);
+                }
+
+                @Override
+                public String fingerprint(final String type) {
+                    // bundle holds the same JSON, the type is parsed only when it has to be checked
+                    return Cache.sha256(bundle.json(type).getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public Schema schema(final String type) {
+                    return bundle.schema(type);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    bundle.close();
+                }
+            };
+        }
+
+        private static Baseline directory(final Path root) throws IOException {
+            List<Document> documents = new ArrayList<>();
+            Map<String, Document> declaredIn = new HashMap<>();
+            for (String filename : new Discovery().files(Collections.singletonList(root.toString()))) {
+                try (MappingIterator<JsonNode> it = OBJECT_MAPPER.readerFor(JsonNode.class).readValues(new File(filename))) {
+                    while (it.hasNext()) {
+                        String json = it.next().toString();
+                        Document document = new Document(filename, json, Scan.scan(filename, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+                        documents.add(document);
+                        for (String type : document.scan.declarations()) {
+                            declaredIn.putIfAbsent(type, document);
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    throw new IOException("Cannot parse baseline file: " + filename, ex);
+                }
+            }
+            Map<String, Schema> types = new HashMap<>();
+            for (Document document : documents) {
+                parse(document, declaredIn, types);
+            }
+            logger.debug("Baseline: {} has {} types", root, types.size());
+            Map<String, String> fingerprints = new ConcurrentHashMap<>();
+            return new Baseline() {
+                @Override
+                public Set<String> types() {
+                    return types.keySet();
+                }
+
+                @Override
+                public String fingerprint(final String type) {
+                    return fingerprints.computeIfAbsent(type, t -> Compatibility.fingerprint(types.get(t)));
+                }
+
+                @Override
+                public Schema schema(final String type) {
+                    return types.get(type);
+                }
+            };
+        }
+
+        /**
+         * Parses documents declaring types the document refers to first, referenced format writes named types
+         * only once and refers to them by fullname, also from other files.
+         */
+        private static void parse(final Document document, final Map<String, Document> declaredIn, final Map<String, Schema> types) throws IOException {
+            if (document.parsed) {
+                return;
+            }
+            // a cycle among documents is left to the parser to report
+            document.parsed = true;
+            Map<String, Schema> dependencies = new HashMap<>();
+            for (Scan.Reference reference : document.scan.references()) {
+                for (String candidate : reference.candidates()) {
+                    if (declaredIn.containsKey(candidate)) {
+                        parse(declaredIn.get(candidate), declaredIn, types);
+                    }
+                    if (types.containsKey(candidate)) {
+                        dependencies.put(candidate, types.get(candidate));
+                        break;
+                    }
+                }
+            }
+            // every document gets its own parser, types written in full may be declared in more documents
+            Schema.Parser parser = new Schema.Parser();
+            parser.addTypes(dependencies);
+            try {
+                parser.parse(document.json);
+            } catch (RuntimeException ex) {
+                throw new IOException("Cannot parse baseline file: " + document.filename, ex);
+            }
+            for (Map.Entry<String, Schema> entry : parser.getTypes().entrySet()) {
+                types.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private static class Document {
+            private final String filename;
+            private final String json;
+            private final Scan scan;
+            private boolean parsed;
+
+            Document(final String filename, final String json, final Scan scan) {
+                this.filename = filename;
+                this.json = json;
+                this.scan = scan;
+            }
+        }
+    }
+}
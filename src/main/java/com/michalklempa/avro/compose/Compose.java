@@ -1,18 +1,38 @@
 package com.michalklempa.avro.compose;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import org.apache.avro.Schema;
 import org.apache.avro.SchemaParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class Compose {
     private static final String avroNameRegex = "((?:[A-Za-z_][A-Za-z0-9_]*\\.)*(?:[A-Za-z_][A-Za-z0-9_]*))";
@@ -20,13 +40,137 @@ public class Compose {
     private static final Pattern unionField = Pattern.compile("Undefined name: \"" + avroNameRegex + "\"");
     private static final Pattern arrayField = Pattern.compile("Type not supported: " + avroNameRegex);
     private static final Pattern[] patterns = new Pattern[]{recordField, unionField, arrayField};
+    /**
+     * Fewer files are parsed (and scanned) by a single thread, also with parallelism.
+     */
+    static final int PARALLEL_THRESHOLD = 64;
     private static Logger logger = LoggerFactory.getLogger(Compose.class);
 
-    private List<String> inputFiles;
+    private final List<String> inputFiles;
+    private final Map<String, SchemaSource> sources;
+    private final int parallelism;
+    private final Cache cache;
+    private final Map<String, SchemaFile.Parsed> base;
+    private final Listener listener;
+    private final Collection<String> targets;
+    private final Shard shard;
+    private final boolean failFast;
+    private final Attempts attempts = new Attempts();
 
+    /**
+     * Notified about every input file as soon as it is parsed (or restored from cache), on the thread which parsed it.
+     */
+    public interface Listener {
+        void parsed(SchemaFile.Parsed parsed);
+    }
 
     public Compose(List<String> inputFiles) {
-        this.inputFiles = inputFiles;
+        this(builder(inputFiles));
+    }
+
+    private Compose(Builder builder) {
+        this.inputFiles = builder.inputFiles;
+        this.sources = builder.sources;
+        this.parallelism = builder.parallelism;
+        this.cache = builder.cache;
+        this.base = builder.base;
+        this.listener = builder.listener;
+        this.targets = builder.targets;
+        this.shard = builder.shard;
+        this.failFast = builder.failFast;
+    }
+
+    public static Builder builder(List<String> inputFiles) {
+        return new Builder(inputFiles, Collections.emptyMap());
+    }
+
+    /**
+     * @param sources content of input files given directly, file names are taken from them
+     */
+    public static Builder builder(Collection<SchemaSource> sources) {
+        return new Builder(sources.stream().map(SchemaSource::filename).collect(Collectors.toList()),
+                sources.stream().collect(Collectors.toMap(SchemaSource::filename, source -> source, (first, second) -> first)));
+    }
+
+    public static class Builder {
+        private final List<String> inputFiles;
+        private final Map<String, SchemaSource> sources;
+        private int parallelism = 1;
+        private Cache cache;
+        private Map<String, SchemaFile.Parsed> base = Collections.emptyMap();
+        private Listener listener;
+        private Collection<String> targets;
+        private Shard shard;
+        private boolean failFast;
+
+        private Builder(List<String> inputFiles, Map<String, SchemaSource> sources) {
+            this.inputFiles = inputFiles;
+            this.sources = sources;
+        }
+
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder cache(Cache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * @param base files composed before (e.g. by previous run in watch mode), input files may depend on types they declare
+         */
+        public Builder base(Collection<SchemaFile.Parsed> base) {
+            return base(ParsedIndex.of(base));
+        }
+
+        /**
+         * @param base types declared by files composed before, by fullname, see {@link ParsedIndex#of(Collection)}.
+         *             Types are only looked up, they are not part of the result
+         */
+        public Builder base(Map<String, SchemaFile.Parsed> base) {
+            this.base = base;
+            return this;
+        }
+
+        /**
+         * @param listener gets parsed files while composition continues, e.g. to output them
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param targets when not null, only files declaring these types and files they (transitively) depend on are parsed,
+         *                other input files are left out of the result
+         */
+        public Builder targets(Collection<String> targets) {
+            this.targets = targets;
+            return this;
+        }
+
+        /**
+         * @param shard when not null, only files declaring types owned by the shard (out of targets, or all declared types)
+         *              and files they (transitively) depend on are parsed
+         */
+        public Builder shard(Shard shard) {
+            this.shard = shard;
+            return this;
+        }
+
+        /**
+         * @param failFast fail right after scanning, when {@link Analysis} finds files, which cannot be composed
+         */
+        public Builder failFast(boolean failFast) {
+            this.failFast = failFast;
+            return this;
+        }
+
+        public Compose build() {
+            return new Compose(this);
+        }
     }
 
     public static String extractType(String message) {
@@ -39,97 +183,565 @@ public class Compose {
         return null;
     }
 
+    /**
+     * @return types declared in input files by fullname, types of the base are only referenced
+     */
     public Map<String, SchemaFile.Parsed> compose() throws IOException, Exception {
-        ParsedIndex parsedIndex = new ParsedIndex();
-        BlockedRegistry blockedRegistry = new BlockedRegistry();
-
-        Deque<SchemaFile.Attempt> remaining = new LinkedList<>();
-        for (String inputFileName : inputFiles) {
-            remaining.offerLast(SchemaFile.Factory.attempt(inputFileName));
+        try (Contents contents = new Contents(cache != null, sources)) {
+            return compose(contents);
         }
+    }
 
-        do {
-            SchemaFile.Attempt attempt = remaining.pollFirst();
-            logger.trace("Trying to parse file: {}", attempt.name());
-            try {
-                SchemaFile.Parsed parsed = SchemaFile.Factory.parsed(attempt);
-                logger.debug("Success parsing file: {}, found declared types: {}", parsed.name(), parsed.declarations());
+    private Map<String, SchemaFile.Parsed> compose(final Contents contents) throws Exception {
+        ParsedIndex parsedIndex = new ParsedIndex(base);
+        BlockedRegistry blockedRegistry = new BlockedRegistry();
+        attempts.clear();
+        DependencyGraph dependencyGraph;
+
+        int threads = Math.min(parallelism, Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = threads > 1 && inputFiles.size() >= PARALLEL_THRESHOLD ? new ForkJoinPool(threads) : null;
+        Set<String> slice = null;
+        Analysis analysis;
+        try {
+            Map<String, SchemaFile.Parsed> clean = new HashMap<>();
+            if (cache == null) {
+                dependencyGraph = DependencyGraph.scan(inputFiles, new HashMap<>(), base, pool, contents);
+            } else {
+                Set<String> stale;
+                do {
+                    clean = cache.clean(inputFiles, contents);
+                    dependencyGraph = DependencyGraph.scan(inputFiles, cachedScans(clean.keySet()), base, pool, contents);
+                    stale = stale(clean, dependencyGraph);
+                    cache.invalidate(stale);
+                } while (!stale.isEmpty());
+                // clean files touched since the last run were read only to compute their hash
+                contents.forget(clean.keySet());
+            }
+            Set<String> skip = new HashSet<>(clean.keySet());
+            if (targets != null || shard != null) {
+                slice = slice(dependencyGraph);
+                for (String filename : dependencyGraph.order()) {
+                    if (!slice.contains(filename)) {
+                        skip.add(filename);
+                    }
+                }
+                contents.forget(skip);
+                logger.info("Composing {} of {} files for target types: {}{}", dependencyGraph.order().stream().filter(slice::contains).count(), dependencyGraph.order().size(),
+                        targets == null ? "all" : targets, shard == null ? "" : ", shard " + shard);
+            }
+            analysis = analyze(dependencyGraph, skip);
+            // broken files would only fail and block, the rest is composed without them
+            skip.addAll(analysis.broken());
+            contents.forget(analysis.broken());
+            for (SchemaFile.Parsed parsed : clean.values()) {
+                if (slice != null && !slice.contains(parsed.filename())) {
+                    continue;
+                }
                 parsedIndex.add(parsed);
-                for (SchemaFile.Attempt unblockedAttempt : blockedRegistry.unblock(parsed)) {
-                    logger.trace("Unblocking file and queuing: {}", unblockedAttempt.name());
-                    remaining.offerLast(unblockedAttempt);
+                if (listener != null) {
+                    listener.parsed(parsed);
                 }
-            } catch (SchemaParseException ex) {
-                if (ex.getCause() != null) {
-                    if (ex.getCause() instanceof JsonParseException) {
-                        throw ex;
+            }
+
+            Deque<SchemaFile.Attempt> remaining = new LinkedList<>();
+            if (pool != null) {
+                remaining.addAll(new Parallel(pool, dependencyGraph, parsedIndex, blockedRegistry, attempts, listener).run(skip, contents));
+            } else {
+                for (String inputFileName : dependencyGraph.order()) {
+                    if (!skip.contains(inputFileName)) {
+                        remaining.offerLast(SchemaFile.Factory.attempt(inputFileName, contents.release(inputFileName)));
                     }
                 }
-                String requiredType = extractType(ex.getMessage());
-                logger.debug("Error parsing file: {}, depends on type: {}", attempt.name(), requiredType);
-                if (parsedIndex.contains(requiredType)) {
-                    SchemaFile.Attempt repeatAttempt = SchemaFile.Factory.attempt(attempt, parsedIndex.get(requiredType));
-                    logger.trace("Type {} seen before, file {} adding dependency {} and queuing.", requiredType, repeatAttempt.name(), parsedIndex.get(requiredType).name());
-                    remaining.offerLast(repeatAttempt);
-                } else {
-                    logger.trace("Blocking file {}.", attempt.name());
-                    blockedRegistry.block(requiredType, ex, attempt);
+            }
+            while (!remaining.isEmpty()) {
+                for (SchemaFile.Attempt next : process(remaining.pollFirst(), dependencyGraph, parsedIndex, blockedRegistry, attempts, listener)) {
+                    remaining.offerLast(next);
                 }
             }
-            // until ( nothing remains ) )
-        } while (!remaining.isEmpty());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
 
-        if (blockedRegistry.isEmpty()) {
-            logger.info("Successfully parsed all files");
+        if (blockedRegistry.isEmpty() && analysis.isEmpty()) {
+            logger.info("Successfully parsed all files, {} files in {} attempts", slice == null ? dependencyGraph.order().size() : dependencyGraph.order().stream().filter(slice::contains).count(), attempts.get());
         } else {
             logger.error("Error parsing files, remaining files with errors:");
+            for (String filename : analysis.broken()) {
+                logger.error("File {} cannot be composed: {}", filename, analysis.describe(filename));
+            }
             for (SchemaFile.Blocked blocked : blockedRegistry.all()) {
-                logger.error("File {} is requiring type: {}, parsing ended with exception.", blocked.name(), blocked.requiredType(), blocked.exception());
+                if (blocked.exception() == null) {
+                    logger.error("File {} is waiting for types: {}, which were never parsed.", blocked.name(), blocked.requiredTypes());
+                } else {
+                    logger.error("File {} is requiring types: {}, parsing ended with exception.", blocked.name(), blocked.requiredTypes(), blocked.exception());
+                }
             }
             throw new Exception("Error parsing files.");
         }
+        duplicates(parsedIndex, dependencyGraph);
+
+        if (cache != null) {
+            for (SchemaFile.Parsed parsed : new LinkedHashSet<>(parsedIndex.all().values())) {
+                cache.update(parsed, dependencyGraph.scan(parsed.filename()), contents);
+            }
+            cache.retain(inputFiles);
+            cache.save();
+        }
 
         return parsedIndex.all();
     }
 
+    /**
+     * Finds files, which cannot be composed, before parsing any of them, they are never attempted. With fail fast, composition ends right here.
+     *
+     * @param skip files not composed in this run
+     */
+    private Analysis analyze(final DependencyGraph dependencyGraph, final Set<String> skip) throws Exception {
+        List<String> filenames = new ArrayList<>();
+        for (String filename : dependencyGraph.order()) {
+            if (!skip.contains(filename)) {
+                filenames.add(filename);
+            }
+        }
+        Analysis analysis = new Analysis(dependencyGraph, filenames);
+        if (!analysis.isEmpty()) {
+            if (failFast) {
+                for (String problem : analysis.problems()) {
+                    logger.error("Dependency problem: {}", problem);
+                }
+                for (String filename : analysis.broken()) {
+                    logger.error("File {} cannot be composed: {}", filename, analysis.describe(filename));
+                }
+                throw new Exception("Dependency problems found, " + analysis.broken().size() + " files cannot be composed: " + analysis.problems());
+            }
+            for (String problem : analysis.problems()) {
+                logger.warn("Dependency problem: {}", problem);
+            }
+            logger.warn("{} files cannot be composed because of dependency problems, composing the rest.", analysis.broken().size());
+        }
+        return analysis;
+    }
+
+    /**
+     * @return input files needed for target types (owned by the shard)
+     */
+    private Set<String> slice(final DependencyGraph dependencyGraph) throws Exception {
+        Collection<String> types = targets == null ? dependencyGraph.declarations() : targets;
+        Set<String> undeclared = new TreeSet<>();
+        for (String target : types) {
+            if (dependencyGraph.declaredIn(target) == null) {
+                undeclared.add(target);
+            }
+        }
+        if (!undeclared.isEmpty()) {
+            throw new Exception("Target types are not declared in any input file: " + undeclared);
+        }
+        if (shard != null) {
+            types = types.stream().filter(shard::owns).collect(Collectors.toList());
+        }
+        return dependencyGraph.closure(types);
+    }
+
+    /**
+     * Type declared in multiple files resolves to the same file, the dependency graph resolved references to it to.
+     * Identical declarations (by fingerprint of canonical form) are harmless, conflicting ones are reported.
+     */
+    private static void duplicates(final ParsedIndex parsedIndex, final DependencyGraph dependencyGraph) {
+        for (Map.Entry<String, Set<SchemaFile.Parsed>> entry : parsedIndex.duplicates().entrySet()) {
+            String type = entry.getKey();
+            List<SchemaFile.Parsed> declaring = new ArrayList<>(entry.getValue());
+            declaring.sort(Comparator.comparing(SchemaFile::filename));
+            SchemaFile.Parsed resolved = declaring.get(0);
+            Set<Fingerprint> fingerprints = new HashSet<>();
+            for (SchemaFile.Parsed parsed : declaring) {
+                fingerprints.add(parsed.fingerprint(type));
+                if (parsed.filename().equals(dependencyGraph.declaredIn(type))) {
+                    resolved = parsed;
+                }
+            }
+            parsedIndex.resolve(type, resolved);
+
+            List<String> files = new ArrayList<>();
+            for (SchemaFile.Parsed parsed : declaring) {
+                files.add(parsed.name() + " (" + parsed.fingerprint(type) + ")");
+            }
+            if (fingerprints.size() == 1) {
+                logger.info("Type {} is declared identically in files: {}, using {}.", type, files, resolved.name());
+            } else {
+                logger.warn("Type {} is declared differently in files: {}, using {}.", type, files, resolved.name());
+            }
+        }
+    }
+
+    /**
+     * @return number of parse attempts made by the last {@link #compose()}, each input file takes at least one
+     */
+    public int attempts() {
+        return attempts.total.get();
+    }
+
+    /**
+     * Parse attempts made, in total and of every file.
+     */
+    private static class Attempts {
+        private final AtomicInteger total = new AtomicInteger();
+        private final Map<String, AtomicInteger> files = new ConcurrentHashMap<>();
+
+        /**
+         * @return number of this attempt of given file, starting at 1
+         */
+        int next(final String filename) {
+            total.incrementAndGet();
+            return files.computeIfAbsent(filename, f -> new AtomicInteger()).incrementAndGet();
+        }
+
+        int get() {
+            return total.get();
+        }
+
+        void clear() {
+            total.set(0);
+            files.clear();
+        }
+    }
+
+    private Map<String, Scan> cachedScans(final Set<String> filenames) {
+        Map<String, Scan> scans = new HashMap<>();
+        for (String filename : filenames) {
+            scans.put(filename, cache.scan(filename));
+        }
+        return scans;
+    }
+
+    /**
+     * Cached file is stale, when some type it references is now declared in a file it did not depend on,
+     * e.g. new input file declares a name, which takes precedence in namespace resolution.
+     */
+    private static Set<String> stale(final Map<String, SchemaFile.Parsed> clean, final DependencyGraph dependencyGraph) {
+        Set<String> stale = new TreeSet<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : clean.entrySet()) {
+            Set<String> dependencies = new HashSet<>();
+            for (SchemaFile.Parsed dependency : entry.getValue().dependencies()) {
+                dependencies.add(dependency.filename());
+            }
+            for (String type : dependencyGraph.requirements(entry.getKey())) {
+                if (!dependencies.contains(dependencyGraph.declaredIn(type))) {
+                    logger.debug("Cached file: {} requires type: {} from a file it did not depend on, parsing it again.", entry.getKey(), type);
+                    stale.add(entry.getKey());
+                }
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Single parse attempt, shared by serial and parallel composition. Parsing itself runs without any lock,
+     * updates of {@link ParsedIndex} and {@link BlockedRegistry} are done together while holding the registry lock,
+     * so that no file gets blocked on a type, which was just added to the index by another thread.
+     *
+     * @return attempts to be queued next
+     */
+    private static List<SchemaFile.Attempt> process(final SchemaFile.Attempt polled, final DependencyGraph dependencyGraph, final ParsedIndex parsedIndex, final BlockedRegistry blockedRegistry, final Attempts attempts, final Listener listener) throws IOException {
+        List<SchemaFile.Attempt> next = new LinkedList<>();
+        SchemaFile.Attempt attempt = SchemaFile.Factory.attempt(polled, dependencyGraph.dependencies(polled.filename(), parsedIndex));
+        logger.trace("Trying to parse file: {}", attempt.name());
+        int number = attempts.next(attempt.filename());
+        Events.Span span = Events.begin(Events.Kind.ATTEMPT);
+        try {
+            SchemaFile.Parsed parsed = SchemaFile.Factory.parsed(attempt);
+            Events.attempt(span, attempt, number, null);
+            logger.debug("Success parsing file: {}, found declared types: {}", parsed.name(), parsed.declarations());
+            synchronized (blockedRegistry) {
+                parsedIndex.add(parsed);
+                for (SchemaFile.Attempt unblockedAttempt : blockedRegistry.unblock(parsed)) {
+                    logger.trace("Unblocking file and queuing: {}", unblockedAttempt.name());
+                    next.add(unblockedAttempt);
+                }
+            }
+            // outside of the lock, listener may block
+            if (listener != null) {
+                listener.parsed(parsed);
+            }
+        } catch (SchemaParseException ex) {
+            Events.attempt(span, attempt, number, ex);
+            if (ex.getCause() != null) {
+                if (ex.getCause() instanceof JsonParseException) {
+                    throw ex;
+                }
+            }
+            String reportedType = extractType(ex.getMessage());
+            Set<String> requiredTypes = dependencyGraph.requiredTypes(attempt.filename(), reportedType);
+            logger.debug("Error parsing file: {}, reported missing type: {}, depends on types: {}", attempt.name(), reportedType, requiredTypes);
+
+            synchronized (blockedRegistry) {
+                Set<SchemaFile.Parsed> seen = new LinkedHashSet<>();
+                Set<String> missing = new TreeSet<>();
+                for (String requiredType : requiredTypes) {
+                    if (parsedIndex.contains(requiredType)) {
+                        seen.add(parsedIndex.get(requiredType));
+                    } else {
+                        missing.add(requiredType);
+                    }
+                }
+                SchemaFile.Attempt repeatAttempt = SchemaFile.Factory.attempt(attempt, seen);
+                if (missing.isEmpty() && repeatAttempt != attempt) {
+                    logger.trace("Types {} seen before, file {} adding dependencies and queuing.", requiredTypes, repeatAttempt.name());
+                    next.add(repeatAttempt);
+                } else {
+                    logger.trace("Blocking file {} on types {}.", attempt.name(), missing);
+                    blockedRegistry.block(missing, ex, repeatAttempt);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Parses files on a {@link ForkJoinPool} level by level, see {@link DependencyGraph#levels(Set)}. Files of one level
+     * depend only on files of earlier levels, so they are parsed at the same time with no coordination between them.
+     * Levels with less than {@link #PARALLEL_THRESHOLD} files are parsed by the calling thread, handing a few files
+     * over to other threads costs more than parsing them.
+     */
+    private static class Parallel {
+        private final ForkJoinPool pool;
+        private final DependencyGraph dependencyGraph;
+        private final ParsedIndex parsedIndex;
+        private final BlockedRegistry blockedRegistry;
+        private final Attempts attempts;
+        private final Listener listener;
+
+        Parallel(final ForkJoinPool pool, final DependencyGraph dependencyGraph, final ParsedIndex parsedIndex, final BlockedRegistry blockedRegistry, final Attempts attempts, final Listener listener) {
+            this.pool = pool;
+            this.dependencyGraph = dependencyGraph;
+            this.parsedIndex = parsedIndex;
+            this.blockedRegistry = blockedRegistry;
+            this.attempts = attempts;
+            this.listener = listener;
+        }
+
+        /**
+         * @return attempts left for the serial loop: retries, files unblocked by retries and files in dependency cycles
+         */
+        List<SchemaFile.Attempt> run(final Set<String> skip, final Contents contents) throws Exception {
+            List<SchemaFile.Attempt> remaining = new ArrayList<>();
+            for (List<String> level : dependencyGraph.levels(skip)) {
+                if (level.size() < PARALLEL_THRESHOLD) {
+                    for (String filename : level) {
+                        remaining.addAll(process(SchemaFile.Factory.attempt(filename, contents.release(filename)), dependencyGraph, parsedIndex, blockedRegistry, attempts, listener));
+                    }
+                    continue;
+                }
+                try {
+                    remaining.addAll(pool.submit(() -> level.parallelStream()
+                            .flatMap(filename -> {
+                                try {
+                                    return process(SchemaFile.Factory.attempt(filename, contents.release(filename)), dependencyGraph, parsedIndex, blockedRegistry, attempts, listener).stream();
+                                } catch (IOException ex) {
+                                    throw new UncheckedIOException(ex);
+                                }
+                            })
+                            .collect(Collectors.toList())).get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause() instanceof UncheckedIOException ? ex.getCause().getCause() : ex.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : ex;
+                }
+            }
+            for (String filename : dependencyGraph.order()) {
+                if (!skip.contains(filename) && dependencyGraph.cyclic(filename)) {
+                    remaining.add(SchemaFile.Factory.attempt(filename, contents.release(filename)));
+                }
+            }
+            return remaining;
+        }
+    }
+
+    /**
+     * Index of parsed files by declared type. Sorted by type, so the result does not depend on the order
+     * files were parsed in, safe for concurrent use.
+     * This is the only shared type table, every {@link SchemaFile.Parsed} holds just its own declarations.
+     */
     public static class ParsedIndex {
-        private Map<String, SchemaFile.Parsed> types = new HashMap<>();
+        private final Map<String, SchemaFile.Parsed> base;
+        private Map<String, SchemaFile.Parsed> types = new ConcurrentSkipListMap<>();
+        private Map<String, Set<SchemaFile.Parsed>> duplicates = new ConcurrentSkipListMap<>();
+
+        public ParsedIndex() {
+            this(Collections.emptyMap());
+        }
+
+        /**
+         * @param base types composed before, looked up when not added here, not copied
+         */
+        public ParsedIndex(Map<String, SchemaFile.Parsed> base) {
+            this.base = base;
+        }
+
+        /**
+         * @return types declared by given files by fullname, first declaration wins
+         */
+        public static Map<String, SchemaFile.Parsed> of(Collection<SchemaFile.Parsed> files) {
+            Map<String, SchemaFile.Parsed> types = new HashMap<>();
+            for (SchemaFile.Parsed parsed : files) {
+                for (String type : parsed.declarations()) {
+                    types.putIfAbsent(type, parsed);
+                }
+            }
+            return types;
+        }
 
         public void add(SchemaFile.Parsed parsed) {
             for (String type : parsed.declarations()) {
-                types.put(type, parsed);
+                SchemaFile.Parsed replaced = types.put(type, parsed);
+                SchemaFile.Parsed previous = replaced == null ? base.get(type) : replaced;
+                if (previous != null && !previous.filename().equals(parsed.filename())) {
+                    duplicates.computeIfAbsent(type, k -> new LinkedHashSet<>(Collections.singleton(previous))).add(parsed);
+                }
             }
         }
 
+        /**
+         * @return types declared in more than one file, with all the files declaring them
+         */
+        public Map<String, Set<SchemaFile.Parsed>> duplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Makes the type resolve to given file, which must have been added before.
+         */
+        public void resolve(String type, SchemaFile.Parsed parsed) {
+            types.put(type, parsed);
+        }
+
         public boolean contains(String type) {
-            return types.keySet().contains(type);
+            return type != null && (types.containsKey(type) || base.containsKey(type));
         }
 
         public SchemaFile.Parsed get(String type) {
-            return types.get(type);
+            SchemaFile.Parsed parsed = types.get(type);
+            return parsed == null ? base.get(type) : parsed;
+        }
+
+        public Schema schema(String type) {
+            SchemaFile.Parsed parsed = get(type);
+            return parsed == null ? null : parsed.types().get(type);
         }
 
+        /**
+         * @return types added here, without the base
+         */
         public Map<String, SchemaFile.Parsed> all() {
             return types;
         }
     }
 
+    /**
+     * Content of input files, each file is read once, when first needed (scanning, hashing or the first parse attempt).
+     * Content is handed over to the first {@link SchemaFile.Attempt} of the file and forgotten here,
+     * it is released together with the last attempt, once the file is parsed.
+     */
+    public static class Contents implements Closeable {
+        private final boolean hashing;
+        private final Map<String, SchemaSource> sources;
+        private final Sources.Reader reader = new Sources.Reader();
+        private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+        private final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+        /**
+         * @param hashing compute SHA-256 of every file read, see {@link #hash(String)}
+         * @param sources files given by content, other files are read by {@link Sources}
+         */
+        public Contents(final boolean hashing, final Map<String, SchemaSource> sources) {
+            this.hashing = hashing;
+            this.sources = sources;
+        }
+
+        private byte[] load(final String filename) throws IOException {
+            Events.Span span = Events.begin(Events.Kind.READ);
+            SchemaSource source = sources.get(filename);
+            byte[] content = source != null ? source.content() : reader.read(filename);
+            Events.read(span, filename, content.length);
+            return content;
+        }
+
+        public byte[] read(final String filename) throws IOException {
+            byte[] content = contents.get(filename);
+            if (content == null) {
+                content = load(filename);
+                if (hashing) {
+                    hashes.put(filename, Cache.sha256(content));
+                }
+                contents.put(filename, content);
+            }
+            return content;
+        }
+
+        /**
+         * @return SHA-256 of file content, available also after the content was released
+         */
+        public String hash(final String filename) throws IOException {
+            String hash = hashes.get(filename);
+            if (hash == null) {
+                hash = Cache.sha256(hashing ? read(filename) : load(filename));
+                hashes.put(filename, hash);
+            }
+            return hash;
+        }
+
+        public void forget(final Collection<String> filenames) {
+            contents.keySet().removeAll(filenames);
+        }
+
+        public byte[] release(final String filename) throws IOException {
+            byte[] content = contents.remove(filename);
+            return content != null ? content : load(filename);
+        }
+
+        /**
+         * Closes archives opened while reading, contents read are dropped.
+         */
+        @Override
+        public void close() throws IOException {
+            contents.clear();
+            reader.close();
+        }
+    }
+
+    /**
+     * Files blocked on a set of types. File is unblocked only after all of its required types get parsed,
+     * the attempt then carries all the files declaring them as dependencies.
+     * File blocked on empty set has failed for a reason other than missing type and stays blocked.
+     */
     public static class BlockedRegistry {
-        private Map<String, List<SchemaFile.Blocked>> typeToBlocked = new HashMap<>();
+        private Map<String, List<Pending>> typeToBlocked = new HashMap<>();
+        private List<Pending> pending = new LinkedList<>();
 
-        public void block(final String requiredType, final Exception ex, final SchemaFile.Attempt attempt) {
-            if (!typeToBlocked.containsKey(requiredType)) {
-                typeToBlocked.put(requiredType, new LinkedList<>());
+        public void block(final Set<String> requiredTypes, final Exception ex, final SchemaFile.Attempt attempt) {
+            Pending blocked = new Pending(SchemaFile.Factory.blocked(attempt, ex, requiredTypes));
+            Events.blocked(attempt.filename(), requiredTypes);
+            for (String requiredType : requiredTypes) {
+                if (!typeToBlocked.containsKey(requiredType)) {
+                    typeToBlocked.put(requiredType, new LinkedList<>());
+                }
+                typeToBlocked.get(requiredType).add(blocked);
             }
-            typeToBlocked.get(requiredType).add(SchemaFile.Factory.blocked(attempt, ex, requiredType));
+            pending.add(blocked);
         }
 
         public List<SchemaFile.Attempt> unblock(final SchemaFile.Parsed schemaFile) {
             List<SchemaFile.Attempt> unblocked = new LinkedList<>();
             for (String type : schemaFile.declarations()) {
                 if (typeToBlocked.containsKey(type)) {
-                    for (SchemaFile.Blocked blocked : typeToBlocked.get(type)) {
-                        unblocked.add(SchemaFile.Factory.attempt(blocked, schemaFile));
+                    for (Pending blocked : typeToBlocked.get(type)) {
+                        blocked.missing.remove(type);
+                        blocked.dependencies.add(schemaFile);
+                        if (blocked.missing.isEmpty()) {
+                            Events.unblocked(blocked.span, blocked.blocked.filename(), schemaFile.filename());
+                            unblocked.add(SchemaFile.Factory.attempt(blocked.blocked, blocked.dependencies));
+                            pending.remove(blocked);
+                        }
                     }
                     typeToBlocked.get(type).clear();
                     typeToBlocked.remove(type);
@@ -139,15 +751,314 @@ public class Compose {
         }
 
         public boolean isEmpty() {
-            return typeToBlocked.isEmpty();
+            return pending.isEmpty();
         }
 
         public List<SchemaFile.Blocked> all() {
             List<SchemaFile.Blocked> all = new LinkedList<>();
-            for (List<SchemaFile.Blocked> perType : typeToBlocked.values()) {
-                all.addAll(perType);
+            for (Pending blocked : pending) {
+                all.add(blocked.blocked);
             }
             return all;
         }
+
+        private static class Pending {
+            private final SchemaFile.Blocked blocked;
+            private final Set<String> missing;
+            private final Set<SchemaFile.Parsed> dependencies = new LinkedHashSet<>();
+            private final Events.Span span = Events.begin(Events.Kind.UNBLOCKED);
+
+            Pending(final SchemaFile.Blocked blocked) {
+                this.blocked = blocked;
+                this.missing = new TreeSet<>(blocked.requiredTypes());
+            }
+        }
+    }
+
+    /**
+     * File level dependency graph built from {@link Scan} of every input file, before any Avro parsing takes place.
+     * Files are ordered topologically, so that every file comes after the files declaring types it references.
+     * References the scanner cannot resolve (or files it cannot read) are left for the retry loop in {@link #compose()}.
+     */
+    public static class DependencyGraph {
+        private final List<String> order = new ArrayList<>();
+        private final Map<String, String> declaredIn = new HashMap<>();
+        private final Map<String, Set<String>> requirements = new HashMap<>();
+        private final Map<String, Set<String>> unresolved = new HashMap<>();
+        private final Map<String, Map<String, String>> referenced = new HashMap<>();
+        private final Set<String> cyclic = new HashSet<>();
+        private final Map<String, Scan> scans = new HashMap<>();
+        private final Map<String, SchemaFile.Parsed> base;
+
+        public DependencyGraph(final List<String> filenames, final List<Scan> scans) {
+            this(filenames, scans, Collections.emptyMap());
+        }
+
+        /**
+         * @param base types declared by files composed before, by fullname, looked up only for references input files do not declare
+         */
+        public DependencyGraph(final List<String> filenames, final List<Scan> scans, final Map<String, SchemaFile.Parsed> base) {
+            this.base = base;
+            for (Scan scan : scans) {
+                this.scans.put(scan.filename(), scan);
+                for (String declaration : scan.declarations()) {
+                    declaredIn.putIfAbsent(declaration, scan.filename());
+                }
+            }
+
+            Map<String, Set<String>> dependsOn = new HashMap<>();
+            for (Scan scan : scans) {
+                Set<String> required = new TreeSet<>();
+                Set<String> missing = new TreeSet<>();
+                Set<String> files = new LinkedHashSet<>();
+                Map<String, String> names = new HashMap<>();
+                for (Scan.Reference reference : scan.references()) {
+                    String resolved = resolve(reference);
+                    names.put(reference.name(), resolved == null ? reference.candidates().get(0) : resolved);
+                    if (resolved == null) {
+                        missing.add(reference.candidates().get(0));
+                    } else if (!scan.filename().equals(declaredIn(resolved))) {
+                        required.add(resolved);
+                        files.add(declaredIn(resolved));
+                    }
+                }
+                requirements.put(scan.filename(), required);
+                unresolved.put(scan.filename(), missing);
+                referenced.put(scan.filename(), names);
+                dependsOn.put(scan.filename(), files);
+                if (!missing.isEmpty()) {
+                    logger.debug("Scanning file: {}, no input declares types: {}", scan.filename(), missing);
+                }
+            }
+
+            sort(new ArrayList<>(new LinkedHashSet<>(filenames)), dependsOn);
+        }
+
+        public static DependencyGraph scan(final List<String> filenames) throws Exception {
+            try (Contents contents = new Contents(false, Collections.emptyMap())) {
+                return scan(filenames, new HashMap<>(), Collections.emptyMap(), null, contents);
+            }
+        }
+
+        /**
+         * @param known files already scanned, e.g. restored from {@link Cache}
+         * @param base  types declared by files composed before, not part of the input files, but input files may require them
+         * @param pool  when not null, files are scanned in parallel
+         * @param contents files are read through, content is kept there for parsing
+         */
+        public static DependencyGraph scan(final List<String> filenames, final Map<String, Scan> known, final Map<String, SchemaFile.Parsed> base, final ForkJoinPool pool, final Contents contents) throws Exception {
+            List<Scan> scans;
+            if (pool == null) {
+                scans = filenames.stream()
+                        .map(filename -> known.containsKey(filename) ? known.get(filename) : scanOrNull(filename, contents))
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList());
+            } else {
+                scans = pool.submit(() -> filenames.parallelStream()
+                        .map(filename -> known.containsKey(filename) ? known.get(filename) : scanOrNull(filename, contents))
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList())).get();
+            }
+            return new DependencyGraph(filenames, scans, base);
+        }
+
+        private static Scan scanOrNull(final String filename, final Contents contents) {
+            try {
+                Scan scan = Scan.scan(filename, new ByteArrayInputStream(contents.read(filename)));
+                logger.trace("Scanned file: {}, declares: {}, references: {}", filename, scan.declarations(), scan.references());
+                return scan;
+            } catch (IOException ex) {
+                logger.debug("Unable to scan file: {}, leaving it for parser.", filename, ex);
+                return null;
+            }
+        }
+
+        private String resolve(final Scan.Reference reference) {
+            for (String candidate : reference.candidates()) {
+                if (declaredIn(candidate) != null) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Kahn's algorithm, ties are broken by original input order, files left in cycles are appended in input order.
+         */
+        private void sort(final List<String> filenames, final Map<String, Set<String>> dependsOn) {
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < filenames.size(); i++) {
+                index.put(filenames.get(i), i);
+            }
+            Map<String, Integer> inDegree = new HashMap<>();
+            Map<String, List<String>> dependents = new HashMap<>();
+            PriorityQueue<Integer> ready = new PriorityQueue<>();
+            for (String filename : filenames) {
+                Set<String> files = new LinkedHashSet<>(dependsOn.getOrDefault(filename, new LinkedHashSet<>()));
+                files.retainAll(index.keySet());
+                inDegree.put(filename, files.size());
+                for (String file : files) {
+                    dependents.computeIfAbsent(file, k -> new ArrayList<>()).add(filename);
+                }
+                if (files.isEmpty()) {
+                    ready.add(index.get(filename));
+                }
+            }
+            Set<String> sorted = new LinkedHashSet<>();
+            while (!ready.isEmpty()) {
+                String filename = filenames.get(ready.poll());
+                sorted.add(filename);
+                for (String dependent : dependents.getOrDefault(filename, new ArrayList<>())) {
+                    if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                        ready.add(index.get(dependent));
+                    }
+                }
+            }
+            for (String filename : filenames) {
+                if (!sorted.contains(filename)) {
+                    logger.debug("File: {} is part of dependency cycle, leaving it for parser.", filename);
+                    sorted.add(filename);
+                    cyclic.add(filename);
+                }
+            }
+            order.addAll(sorted);
+        }
+
+        public List<String> order() {
+            return order;
+        }
+
+        /**
+         * Files of the order split into levels: file depends only on files of earlier levels (and on files not parsed).
+         * Files in dependency cycles (and files depending on them) are left out.
+         *
+         * @param skip files not parsed in this run
+         */
+        public List<List<String>> levels(final Set<String> skip) {
+            Map<String, Integer> levelOf = new HashMap<>();
+            List<List<String>> levels = new ArrayList<>();
+            for (String filename : order) {
+                if (skip.contains(filename) || cyclic.contains(filename)) {
+                    continue;
+                }
+                int level = 0;
+                for (String type : requirements(filename)) {
+                    Integer dependency = levelOf.get(declaredIn(type));
+                    if (dependency != null) {
+                        level = Math.max(level, dependency + 1);
+                    }
+                }
+                levelOf.put(filename, level);
+                if (level == levels.size()) {
+                    levels.add(new ArrayList<>());
+                }
+                levels.get(level).add(filename);
+            }
+            return levels;
+        }
+
+        /**
+         * @return scan of the file, null if scanner could not read it
+         */
+        public Scan scan(final String filename) {
+            return scans.get(filename);
+        }
+
+        /**
+         * @return input file declaring given type as seen by scanner, otherwise the base file declaring it
+         */
+        public String declaredIn(final String type) {
+            String filename = declaredIn.get(type);
+            if (filename == null && base.containsKey(type)) {
+                return base.get(type).filename();
+            }
+            return filename;
+        }
+
+        /**
+         * @return fullnames declared in input files, as seen by scanner
+         */
+        public Set<String> declarations() {
+            Set<String> declarations = new TreeSet<>();
+            for (Scan scan : scans.values()) {
+                declarations.addAll(scan.declarations());
+            }
+            return declarations;
+        }
+
+        /**
+         * @return whether the file depends (transitively) on a dependency cycle, topological order could not place it
+         */
+        public boolean cyclic(final String filename) {
+            return cyclic.contains(filename);
+        }
+
+        /**
+         * @return fullnames declared in other input files, which given file references
+         */
+        public Set<String> requirements(final String filename) {
+            return requirements.getOrDefault(filename, new TreeSet<>());
+        }
+
+        /**
+         * @return fullnames referenced from given file, which are not declared in any input file
+         */
+        public Set<String> unresolved(final String filename) {
+            return unresolved.getOrDefault(filename, new TreeSet<>());
+        }
+
+        /**
+         * All types the file needs from other files, as far as we know: types found by scanner
+         * and the type Avro parser reported as missing (may be written unqualified, scanner knows its fullname).
+         */
+        public Set<String> requiredTypes(final String filename, final String reportedType) {
+            Set<String> requiredTypes = new TreeSet<>(requirements(filename));
+            requiredTypes.addAll(unresolved(filename));
+            if (reportedType != null) {
+                requiredTypes.add(referenced.getOrDefault(filename, new HashMap<>()).getOrDefault(reportedType, reportedType));
+            }
+            return requiredTypes;
+        }
+
+        /**
+         * @return files declaring given types and all files they (transitively) depend on.
+         * Files the scanner could not read are included as well, they may declare anything.
+         */
+        public Set<String> closure(final Collection<String> types) {
+            Deque<String> queue = new LinkedList<>();
+            for (String type : types) {
+                if (declaredIn(type) != null) {
+                    queue.add(declaredIn(type));
+                }
+            }
+            for (String filename : order) {
+                if (!scans.containsKey(filename)) {
+                    queue.add(filename);
+                }
+            }
+            Set<String> files = new LinkedHashSet<>();
+            while (!queue.isEmpty()) {
+                String filename = queue.poll();
+                if (files.add(filename)) {
+                    for (String type : requirements(filename)) {
+                        queue.add(declaredIn(type));
+                    }
+                }
+            }
+            return files;
+        }
+
+        /**
+         * @return already parsed files declaring types the given file requires
+         */
+        public Set<SchemaFile.Parsed> dependencies(final String filename, final ParsedIndex parsedIndex) {
+            Set<SchemaFile.Parsed> dependencies = new LinkedHashSet<>();
+            for (String type : requirements(filename)) {
+                if (parsedIndex.contains(type)) {
+                    dependencies.add(parsedIndex.get(type));
+                }
+            }
+            return dependencies;
+        }
     }
 }
@@ -0,0 +1,68 @@
+package com.michalklempa.avro.compose;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reusable entry point for embedding, safe for concurrent callers. Every {@link #compose(Collection)} call
+ * is an independent {@link Compose} run. Engine may carry a base layer of types composed once
+ * (see {@link #withBase(Collection)}), sources of every request may refer to them and only the sources
+ * of the request are parsed. Base layer is immutable and shared by all requests, its types are looked up,
+ * but never copied into the result of a request.
+ */
+public class ComposeEngine {
+    private final int parallelism;
+    private final List<SchemaFile.Parsed> base;
+    private final Map<String, SchemaFile.Parsed> baseTypes;
+
+    public ComposeEngine() {
+        this(1);
+    }
+
+    /**
+     * @param parallelism threads parsing files of a single request, callers running requests concurrently usually want 1
+     */
+    public ComposeEngine(final int parallelism) {
+        this(parallelism, Collections.emptyList());
+    }
+
+    public ComposeEngine(final int parallelism, final Collection<SchemaFile.Parsed> base) {
+        this.parallelism = parallelism;
+        this.base = Collections.unmodifiableList(new ArrayList<>(base));
+        this.baseTypes = Collections.unmodifiableMap(Compose.ParsedIndex.of(this.base));
+    }
+
+    /**
+     * Composes given sources (which may refer to the current base layer) once.
+     *
+     * @return new engine with the composed types added to its base layer
+     */
+    public ComposeEngine withBase(final Collection<SchemaSource> sources) throws Exception {
+        Set<SchemaFile.Parsed> layer = new LinkedHashSet<>(base);
+        layer.addAll(compose(sources).values());
+        return new ComposeEngine(parallelism, layer);
+    }
+
+    /**
+     * @return composed types of given sources only, see {@link #baseTypes()} for the types they may refer to
+     */
+    public Map<String, SchemaFile.Parsed> compose(final Collection<SchemaSource> sources) throws Exception {
+        return Compose.builder(sources).parallelism(parallelism).base(baseTypes).build().compose();
+    }
+
+    public List<SchemaFile.Parsed> base() {
+        return base;
+    }
+
+    /**
+     * @return types of the base layer by fullname
+     */
+    public Map<String, SchemaFile.Parsed> baseTypes() {
+        return baseTypes;
+    }
+}
@@ -0,0 +1,224 @@
+package com.michalklempa.avro.compose;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Finds schema files to compose in input files and directories. Files given explicitly are always used,
+ * directories, .jar/.zip archives and {@code classpath:<prefix>} locations are walked recursively, files matching any of include globs and none of exclude globs are used.
+ * Directories matching exclude globs are not descended into.
+ * Glob without '/' is matched against file (directory) name, otherwise against path relative to the input directory.
+ */
+public class Discovery {
+    public static final List<String> DEFAULT_INCLUDES = Collections.unmodifiableList(Arrays.asList("*.avsc", "*.json", "*.schema"));
+    public static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(".*", "target", "node_modules"));
+    private static Logger logger = LoggerFactory.getLogger(Discovery.class);
+
+    private final List<Glob> includes = new ArrayList<>();
+    private final List<Glob> excludes = new ArrayList<>();
+
+    public Discovery() {
+        this(DEFAULT_INCLUDES, DEFAULT_EXCLUDES);
+    }
+
+    public Discovery(final List<String> includes, final List<String> excludes) {
+        for (String include : includes) {
+            this.includes.add(new Glob(include));
+        }
+        for (String exclude : excludes) {
+            this.excludes.add(new Glob(exclude));
+        }
+    }
+
+    /**
+     * @return schema files found, sorted, each one only once
+     */
+    public List<String> files(final List<String> inputs) throws IOException {
+        Set<String> inputFiles = new LinkedHashSet<>();
+        for (String input : inputs) {
+            if (input.startsWith(Sources.CLASSPATH)) {
+                logger.trace("Specified classpath prefix to search for files {} excluding {}: {}", includes, excludes, input);
+                classpath(input.substring(Sources.CLASSPATH.length()), inputFiles);
+                continue;
+            }
+            Path root = Paths.get(input);
+            if (Sources.isArchive(root)) {
+                logger.trace("Specified archive to search for files {} excluding {}: {}", includes, excludes, input);
+                try (FileSystem archive = Sources.openArchive(root)) {
+                    walk(archive.getPath("/"), file -> input + "!" + file, inputFiles);
+                }
+            } else if (Files.isRegularFile(root)) {
+                logger.trace("Specified File to parse: {}", input);
+                inputFiles.add(input);
+            } else if (Files.isDirectory(root)) {
+                logger.trace("Specified Directory to search for files {} excluding {}: {}", includes, excludes, input);
+                walk(root, Path::toString, inputFiles);
+            } else {
+                logger.warn("Input: {} is neither file nor directory, ignoring it.", input);
+            }
+        }
+        List<String> sorted = new ArrayList<>(inputFiles);
+        sorted.sort(new Main.AlphanumComparator());
+        return sorted;
+    }
+
+    /**
+     * Resources under given prefix in directories and archives on the classpath, named {@code classpath:<prefix>/<path>}.
+     */
+    private void classpath(final String prefix, final Set<String> inputFiles) throws IOException {
+        String directory = prefix.replaceAll("^/+|/+$", "");
+        Enumeration<URL> urls = Thread.currentThread().getContextClassLoader().getResources(directory);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    Path root = Paths.get(url.toURI());
+                    walk(root, file -> Sources.CLASSPATH + directory + "/" + root.relativize(file).toString().replace(File.separatorChar, '/'), inputFiles);
+                } else if ("jar".equals(url.getProtocol())) {
+                    String path = url.getPath();
+                    Path jar = Paths.get(new URI(path.substring(0, path.indexOf(Sources.ARCHIVE_SEPARATOR))));
+                    try (FileSystem archive = Sources.openArchive(jar)) {
+                        walk(archive.getPath("/" + directory), file -> Sources.CLASSPATH + file.toString().substring(1), inputFiles);
+                    }
+                } else {
+                    logger.warn("Classpath location: {} is not supported, skipping it.", url);
+                }
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * @param filename name of found file, used to read it later, see {@link Sources}
+     */
+    private void walk(final Path root, final Function<Path, String> filename, final Set<String> inputFiles) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (excluded(root, dir)) {
+                    logger.trace("Skipping excluded directory: {}", dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Path relative = root.relativize(file);
+                if (attrs.isRegularFile() && matches(includes, relative) && !matches(excludes, relative)) {
+                    String name = filename.apply(file);
+                    logger.trace("Searching directory: {}. Found file to parse: {}", root, name);
+                    inputFiles.add(name);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException ex) {
+                logger.warn("Cannot read: {}, skipping it.", file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return true when the directory found walking the input directory root is not descended into
+     */
+    public boolean excluded(final Path root, final Path directory) {
+        return !directory.equals(root) && matches(excludes, root.relativize(directory));
+    }
+
+    private static boolean matches(final List<Glob> globs, final Path relative) {
+        for (Glob glob : globs) {
+            if (glob.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Glob matched with {@link PathMatcher}, simple name globs ({@code *.avsc}, {@code .*}, {@code target})
+     * are matched as plain string suffix, prefix or name, the same way {@link TemplateName} renders simple templates directly.
+     */
+    private static class Glob {
+        private static final String SPECIAL = "*?[]{}\\";
+
+        private final String pattern;
+        private final boolean name;
+        private final PathMatcher matcher;
+        private final String prefix;
+        private final String suffix;
+
+        Glob(final String pattern) {
+            this.pattern = pattern;
+            this.name = !pattern.contains("/");
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            String prefix = null;
+            String suffix = null;
+            if (name && pattern.startsWith("*") && literal(pattern.substring(1))) {
+                suffix = pattern.substring(1);
+            } else if (name && pattern.endsWith("*") && literal(pattern.substring(0, pattern.length() - 1))) {
+                prefix = pattern.substring(0, pattern.length() - 1);
+            } else if (name && literal(pattern)) {
+                prefix = pattern;
+                suffix = "";
+            }
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        private static boolean literal(final String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                if (SPECIAL.indexOf(pattern.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(final Path relative) {
+            Path path = name ? relative.getFileName() : relative;
+            if (path == null) {
+                return false;
+            }
+            if (prefix != null && suffix != null) {
+                return path.toString().equals(prefix);
+            } else if (prefix != null) {
+                return path.toString().startsWith(prefix);
+            } else if (suffix != null) {
+                return path.toString().endsWith(suffix);
+            }
+            return matcher.matches(path);
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.michalklempa.avro.compose;
+
+import java.util.Collection;
+
+/**
+ * Instrumentation points of composition and output. Every point emits Java Flight Recorder event (see {@link Recorder}),
+ * when JFR is running and the event is enabled in a recording, and adds to the {@link Report} being collected, if any.
+ * Measured operation is wrapped in a {@link Span}: {@link #begin(Kind)} before it, the instrumentation point after it.
+ * With no recording and no report, span is null and a point costs a few field reads. Event fields are computed
+ * only for events, which are going to be committed.
+ */
+public final class Events {
+    private static final Recorder RECORDER = recorder();
+    private static volatile Report report;
+
+    private Events() {
+    }
+
+    enum Kind {
+        READ, ATTEMPT, BLOCKED, UNBLOCKED, RENDER, WRITE
+    }
+
+    /**
+     * Flight Recorder events, implemented by {@code JfrEvents} compiled for Java 11 (see src/main/java11),
+     * absent when built on Java 8 or running without the jdk.jfr module.
+     */
+    interface Recorder {
+        /**
+         * @return event begun, null when JFR is not running or the event is not enabled in any recording
+         */
+        Object begin(Kind kind);
+
+        /**
+         * Ends the event.
+         *
+         * @return whether the event passes recording settings (e.g. threshold) and should be committed
+         */
+        boolean end(Object event);
+
+        void read(Object event, String filename, int bytes);
+
+        void attempt(Object event, String filename, int attempt, int dependencyTypes, String cause);
+
+        void blocked(Object event, String filename, String types);
+
+        void unblocked(Object event, String filename, String by);
+
+        void render(Object event, String type, String outputFilename);
+
+        void write(Object event, String outputFilename, int bytes, boolean written);
+    }
+
+    /**
+     * Operation being measured, started by {@link #begin(Kind)} and ended by the instrumentation point it is passed to.
+     */
+    static final class Span {
+        private final long start = System.nanoTime();
+        private final Object event;
+
+        private Span(final Object event) {
+            this.event = event;
+        }
+
+        private long duration() {
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * @return whether there is an event to commit
+         */
+        private boolean end() {
+            return event != null && RECORDER.end(event);
+        }
+    }
+
+    /**
+     * @param report collects all following events, null stops collecting
+     */
+    public static void report(final Report report) {
+        Events.report = report;
+    }
+
+    /**
+     * @return span to pass to the instrumentation point of given kind, null when nobody is listening
+     */
+    static Span begin(final Kind kind) {
+        Object event = RECORDER == null ? null : RECORDER.begin(kind);
+        if (event == null && report == null) {
+            return null;
+        }
+        return new Span(event);
+    }
+
+    static void read(final Span span, final String filename, final int bytes) {
+        if (span == null) {
+            return;
+        }
+        if (span.end()) {
+            RECORDER.read(span.event, filename, bytes);
+        }
+        Report report = Events.report;
+        if (report != null) {
+            report.read(filename, bytes);
+        }
+    }
+
+    /**
+     * @param cause parser error, null when the attempt succeeded
+     */
+    static void attempt(final Span span, final SchemaFile.Attempt attempt, final int number, final Exception cause) {
+        if (span == null) {
+            return;
+        }
+        long duration = span.duration();
+        boolean commit = span.end();
+        Report report = Events.report;
+        if (!commit && report == null) {
+            return;
+        }
+        int dependencyTypes = 0;
+        for (SchemaFile.Parsed dependency : attempt.dependencies()) {
+            dependencyTypes += dependency.declarations().size();
+        }
+        String message = cause == null ? null : String.valueOf(cause.getMessage());
+        if (commit) {
+            RECORDER.attempt(span.event, attempt.filename(), number, dependencyTypes, message);
+        }
+        if (report != null) {
+            report.attempt(attempt.filename(), dependencyTypes, message, duration);
+        }
+    }
+
+    static void blocked(final String filename, final Collection<String> types) {
+        Span span = begin(Kind.BLOCKED);
+        if (span != null && span.end()) {
+            RECORDER.blocked(span.event, filename, types.toString());
+        }
+    }
+
+    /**
+     * @param span begun when the file was blocked
+     */
+    static void unblocked(final Span span, final String filename, final String by) {
+        if (span == null) {
+            return;
+        }
+        long duration = span.duration();
+        if (span.end()) {
+            RECORDER.unblocked(span.event, filename, by);
+        }
+        Report report = Events.report;
+        if (report != null) {
+            report.blocked(filename, duration);
+        }
+    }
+
+    static void render(final Span span, final String type, final String outputFilename) {
+        if (span == null) {
+            return;
+        }
+        long duration = span.duration();
+        if (span.end()) {
+            RECORDER.render(span.event, type, outputFilename);
+        }
+        Report report = Events.report;
+        if (report != null) {
+            report.render(duration);
+        }
+    }
+
+    static void write(final Span span, final String outputFilename, final int bytes, final boolean written) {
+        if (span == null) {
+            return;
+        }
+        long duration = span.duration();
+        if (span.end()) {
+            RECORDER.write(span.event, outputFilename, bytes, written);
+        }
+        Report report = Events.report;
+        if (report != null) {
+            report.write(bytes, written, duration);
+        }
+    }
+
+    private static Recorder recorder() {
+        try {
+            return (Recorder) Class.forName("com.michalklempa.avro.compose.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+}
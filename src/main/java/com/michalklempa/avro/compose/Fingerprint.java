@@ -0,0 +1,78 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fingerprints of Parsing Canonical Form of a schema, see http://avro.apache.org/docs/current/spec.html#schema_fingerprints
+ */
+public class Fingerprint {
+    private final String crc64;
+    private final String md5;
+    private final String sha256;
+
+    public Fingerprint(final String crc64, final String md5, final String sha256) {
+        this.crc64 = crc64;
+        this.md5 = md5;
+        this.sha256 = sha256;
+    }
+
+    public static Fingerprint of(final Schema schema) {
+        byte[] canonical = SchemaNormalization.toParsingForm(schema).getBytes(StandardCharsets.UTF_8);
+        try {
+            return new Fingerprint(
+                    String.format("%016x", SchemaNormalization.fingerprint64(canonical)),
+                    hex(SchemaNormalization.fingerprint("MD5", canonical)),
+                    hex(SchemaNormalization.fingerprint("SHA-256", canonical)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return CRC-64-AVRO, as unsigned hexadecimal number
+     */
+    public String crc64() {
+        return crc64;
+    }
+
+    public String md5() {
+        return md5;
+    }
+
+    public String sha256() {
+        return sha256;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return sha256.equals(((Fingerprint) o).sha256);
+    }
+
+    @Override
+    public int hashCode() {
+        return sha256.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return crc64;
+    }
+}
@@ -6,17 +6,20 @@ import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
-import org.apache.commons.io.FileUtils;
+import org.apache.avro.generic.GenericData;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -42,10 +45,22 @@ public class Main {
     static {
         ARGUMENT_PARSER.addArgument("input")
                 .type(String.class)
-                .nargs("+")
+                .nargs("*")
                 .metavar("<path>")
-                .setDefault(".")
-                .help("List of schema files and/or directories with Avro schemas, files can be name *.avsc, *.json, *.avro.json, *.schema Default: Current directory.");
+                .setDefault(Collections.singletonList("."))
+                .help("List of schema files and/or directories with Avro schemas, files can be name *.avsc, *.json, *.avro.json, *.schema Default: Current directory. " +
+                        ".jar and .zip archives are searched the same way as directories, without extracting them. " +
+                        "classpath:<prefix> searches classpath resources under the prefix, e.g. classpath:com/example/schemas.");
+        ARGUMENT_PARSER.addArgument("--include")
+                .type(String.class)
+                .action(Arguments.append())
+                .metavar("<glob>")
+                .help("Default: *.avsc *.json *.schema. Glob of files to compose in input directories, can be repeated. Glob without '/' matches file name, otherwise path relative to the input directory, e.g. 'schemas/**.avsc'.");
+        ARGUMENT_PARSER.addArgument("--exclude")
+                .type(String.class)
+                .action(Arguments.append())
+                .metavar("<glob>")
+                .help("Glob of files and directories to skip in input directories, can be repeated. Excluded directories are not walked at all. Hidden files and directories, target and node_modules directories are always excluded.");
         ARGUMENT_PARSER.addArgument("--output.maven.template.file")
                 .type(String.class)
                 .metavar("<jinja2 xml template>")
@@ -90,13 +105,114 @@ public class Main {
                         "{{ schema.props.<property> }}:\t\t any property you add into root schema, which is not recognized by Avro, is preserved, and you can use it to define output filename.\n");
         ARGUMENT_PARSER.addArgument("--output.schemas.format")
                 .type(String.class)
-                .choices("pretty", "oneline", "canonical")
+                .choices("pretty", "oneline", "canonical", "bundle", "referenced")
                 .setDefault("pretty")
-                .help("Default: pretty. If oneline/canonical is used, output files are appended, so you can use appropriate output.filename.template to get multiple schemas in one file.\n" +
+                .help("Default: pretty. If oneline/canonical is used, schemas rendered into the same output filename are written one per line, so you can use appropriate output.filename.template to get multiple schemas in one file.\n" +
                         "Possible Values:\n" +
                         "\tpretty:\t pretty print Avro schemas\n" +
                         "\toneline:\t each schema is one line JSON\n" +
-                        "\tcanonical:\t Parsing Canonical Form (one-line) see http://avro.apache.org/docs/current/spec.html#Parsing+Canonical+Form+for+Schemas\n");
+                        "\tcanonical:\t Parsing Canonical Form (one-line) see http://avro.apache.org/docs/current/spec.html#Parsing+Canonical+Form+for+Schemas\n" +
+                        "\tbundle:\t all types rendered into the same output filename in one binary file, in dependency order, with index of fullname, offset, length and CRC-64-AVRO fingerprint. " +
+                        "Use constant template, e.g. schemas.bundle, to get all the types in one file, load them with com.michalklempa.avro.compose.Bundle.\n" +
+                        "\treferenced:\t each schema is one line JSON defining only its own type, other named types are referred to by fullname (see --output.references), types referred to are written first.\n");
+        ARGUMENT_PARSER.addArgument("--output.java.directory")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Generate Java classes of composed types into this directory with Avro SpecificCompiler, the same as avro-maven-plugin generates them, in parallel (see --parallelism). " +
+                        "Only changed sources are written. With --cache.dir, only types whose schema changed since the last run are generated again and sources of types no longer composed are deleted.");
+        ARGUMENT_PARSER.addArgument("--output.java.string.type")
+                .type(String.class)
+                .choices("CharSequence", "String", "Utf8")
+                .setDefault("CharSequence")
+                .help("Default: CharSequence. Java type of Avro strings in generated classes.");
+        ARGUMENT_PARSER.addArgument("--target")
+                .type(String.class)
+                .action(Arguments.append())
+                .metavar("<fullname>")
+                .help("Compose only this type, can be repeated. Only files declaring target types and files they depend on are parsed and outputted (schemas and Maven imports). Cannot be combined with --watch.");
+        ARGUMENT_PARSER.addArgument("--shard")
+                .type(String.class)
+                .metavar("<i/N>")
+                .help("Compose and output only types of i-th out of N shards (1 <= i <= N), e.g. one shard per CI node. Types are assigned to shards by hash of their fullname, the same on every node. " +
+                        "Only files declaring types of the shard and files they depend on are parsed, schema files and manifest hold only types of the shard, Maven imports all parsed files. " +
+                        "Manifests of all shards merge (see --merge) into the manifest and Maven imports of a single run. Cannot be combined with --watch.");
+        ARGUMENT_PARSER.addArgument("--merge")
+                .type(String.class)
+                .action(Arguments.append())
+                .metavar("<manifest>")
+                .help("Merge manifests written by --shard runs, can be repeated. Nothing is composed, input paths are ignored, merged manifest (see --output.manifest) and Maven imports (see --output.maven.pom) are written as a single run composing all the shards would write them.");
+        ARGUMENT_PARSER.addArgument("--output.streaming")
+                .action(Arguments.storeTrue())
+                .help("Write schema files into output.schemas.directory while composing, as soon as the file declaring the type is parsed, on separate threads (see --parallelism). Maven pom and manifest are written at the end. If composition fails, schema files written so far are kept.");
+        ARGUMENT_PARSER.addArgument("--output.manifest")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Output JSON manifest of all composed types into file specified by this option (- for standard output). For every type lists its fullname, source file and CRC-64-AVRO, MD5 and SHA-256 fingerprints of its Parsing Canonical Form.");
+        ARGUMENT_PARSER.addArgument("--output.references")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Output JSON with schema registry references of every composed type into file specified by this option (- for standard output): " +
+                        "named types the type refers to directly, with their subjects (see --registry.subject.template). Use with referenced format.");
+        ARGUMENT_PARSER.addArgument("--parallelism")
+                .type(Integer.class)
+                .metavar("<threads>")
+                .setDefault(1)
+                .help("Default: 1. Number of threads parsing schema files (and writing output files) at the same time. Files are parsed as soon as all the types they depend on are parsed. Output is the same as with single thread.");
+        ARGUMENT_PARSER.addArgument("--fail.fast")
+                .action(Arguments.storeTrue())
+                .help("Fail right after scanning input files, before parsing any of them, when some file references a type no input file declares, or files depend on each other in a cycle. " +
+                        "Without this option, such files and all files depending on them are reported with the chain of files leading to the problem, and the rest of the files is composed before failing.");
+        ARGUMENT_PARSER.addArgument("--cache.dir")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Directory for incremental compose cache. Files, which did not change (by content hash) since the last run, including all the files they depend on, are not parsed again.");
+        ARGUMENT_PARSER.addArgument("--compat.baseline")
+                .type(String.class)
+                .metavar("<dir|bundle>")
+                .help("Check composed types for compatibility with the same types of a baseline (last release): a directory with schema files output by an earlier run, or a bundle. " +
+                        "Types are checked in parallel (see --parallelism), identical types are not checked, with --cache.dir results are kept and types not changed since the last run are not checked again. " +
+                        "Fails when some type is not compatible.");
+        ARGUMENT_PARSER.addArgument("--compat.level")
+                .type(String.class)
+                .choices("BACKWARD", "FORWARD", "FULL")
+                .setDefault("BACKWARD")
+                .help("Default: BACKWARD. BACKWARD: new schema reads data written with baseline schema, FORWARD: baseline schema reads data written with new schema, FULL: both.");
+        ARGUMENT_PARSER.addArgument("--compat.report")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Write result of the compatibility check of every type as JSON into this file, - for standard output.");
+        ARGUMENT_PARSER.addArgument("--registry.url")
+                .type(String.class)
+                .metavar("<url>")
+                .help("Export composed types to Confluent compatible schema registry at this URL, one subject per type, in dependency order. " +
+                        "Latest schemas of the exported subjects are read in batches, subjects already holding a schema with the same canonical form are skipped.");
+        ARGUMENT_PARSER.addArgument("--registry.subject.template")
+                .type(String.class)
+                .metavar("<template>")
+                .setDefault("{{schema.fullname}}")
+                .help("Default: {{schema.fullname}}. Jinja2 Template for subject names, the same context as --output.schemas.filename.template.");
+        ARGUMENT_PARSER.addArgument("--registry.connections")
+                .type(Integer.class)
+                .metavar("<connections>")
+                .setDefault(4)
+                .help("Default: 4. Number of requests sent to schema registry at the same time, connections are kept alive between requests.");
+        ARGUMENT_PARSER.addArgument("--registry.references")
+                .action(Arguments.storeTrue())
+                .help("Register every type as written by referenced format, with schema registry references to subjects of the named types it uses, instead of inlining all of them.");
+        ARGUMENT_PARSER.addArgument("--registry.batch.size")
+                .type(Integer.class)
+                .metavar("<subjects>")
+                .setDefault(1000)
+                .help("Default: 1000. Number of registered subjects read from schema registry in one request.");
+        ARGUMENT_PARSER.addArgument("--watch")
+                .action(Arguments.storeTrue())
+                .help("Keep running after composing, watch input files and directories for changes. On every change only changed files and files depending on them are parsed again and their schemas outputted.");
+        ARGUMENT_PARSER.addArgument("--report.json")
+                .type(String.class)
+                .metavar("<path>")
+                .help("Write JSON performance report of the composition into file specified by this option (- for standard output), also when it fails: attempts, retry causes, parse time and bytes read of every input file, " +
+                        "bytes written and the largest type table given to the parser. The same points are available as Java Flight Recorder events in category 'Avro Compose', " +
+                        "e.g. with -XX:StartFlightRecording.");
         ARGUMENT_PARSER.addArgument("--log.level")
                 .type(String.class)
                 .choices("TRACE", "DEBUG", "INFO", "WARN", "ERROR")
@@ -122,51 +238,197 @@ public class Main {
                     logger.debug("Command line argument {}: {}", entry.getKey(), entry.getValue());
                 }
             }
+            if (res.getList("target") != null && res.getBoolean("watch")) {
+                throw new ArgumentParserException("argument --target: not allowed with argument --watch", ARGUMENT_PARSER);
+            }
+            if (res.getString("shard") != null) {
+                if (res.getBoolean("watch")) {
+                    throw new ArgumentParserException("argument --shard: not allowed with argument --watch", ARGUMENT_PARSER);
+                }
+                try {
+                    Shard.parse(res.getString("shard"));
+                } catch (IllegalArgumentException ex) {
+                    throw new ArgumentParserException("argument --shard: " + ex.getMessage(), ARGUMENT_PARSER);
+                }
+            }
         } catch (ArgumentParserException ex) {
             ARGUMENT_PARSER.handleError(ex);
             throw ex;
         }
 
-        List<String> inputFiles = new ArrayList<>();
+        if (res.getList("merge") != null) {
+            merge(res);
+            return;
+        }
+
         List<String> inputs = res.getList("input");
-        for (String input : inputs) {
-            if (new File(input).isFile()) {
-                logger.trace("Specified File to parse: {}", input);
-                inputFiles.add(input);
-            } else if (new File(input).isDirectory()) {
-                logger.trace("Specified Directory to search for files [*.avsc,*.json,*.schema]: {}", input);
-                for (File file : FileUtils.listFiles(new File(input), new String[]{"avsc", "json", "schema"}, true)) {
-                    logger.trace("Searching directory: {}. Found file to parse: {}", input, file.getPath());
-                    inputFiles.add(file.getPath());
+        List<String> includes = res.getList("include");
+        List<String> excludes = new ArrayList<>(Discovery.DEFAULT_EXCLUDES);
+        if (res.getList("exclude") != null) {
+            excludes.addAll(res.getList("exclude"));
+        }
+        Discovery discovery = new Discovery(includes == null ? Discovery.DEFAULT_INCLUDES : includes, excludes);
+        List<String> inputFiles = discovery.files(inputs);
+
+        final String reportJson = res.getString("report.json");
+        final Report report = reportJson == null ? null : new Report();
+        Events.report(report);
+        final Map<String, SchemaFile.Parsed> schemas;
+        try {
+            final String cacheDirectory = res.getString("cache.dir");
+            Cache cache = cacheDirectory == null ? null : Cache.load(cacheDirectory);
+            final Shard shard = res.getString("shard") == null ? null : Shard.parse(res.getString("shard"));
+            if (res.getBoolean("output.streaming") && res.getString("output.schemas.directory") != null) {
+                Schemas.Streaming streaming = new Schemas(Collections.emptyMap(), res.getString("output.schemas.directory"), res.getString("output.schemas.format"), res.getString("output.schemas.filename.template"), res.getInt("parallelism"))
+                        .streaming(type -> shard == null || shard.owns(type));
+                try {
+                    schemas = Compose.builder(inputFiles)
+                            .parallelism(res.getInt("parallelism"))
+                            .cache(cache)
+                            .listener(streaming)
+                            .targets(res.getList("target"))
+                            .shard(shard)
+                            .failFast(res.getBoolean("fail.fast"))
+                            .build()
+                            .compose();
+                } catch (Exception ex) {
+                    streaming.abort();
+                    throw ex;
                 }
+                streaming.finish(shard == null ? schemas : shard.owned(schemas));
+                output(res, schemas, Collections.emptyMap(), Collections.emptyMap(), shard);
+            } else {
+                schemas = Compose.builder(inputFiles)
+                        .parallelism(res.getInt("parallelism"))
+                        .cache(cache)
+                        .targets(res.getList("target"))
+                        .shard(shard)
+                        .failFast(res.getBoolean("fail.fast"))
+                        .build()
+                        .compose();
+                output(res, schemas, shard == null ? schemas : shard.owned(schemas), Collections.emptyMap(), shard);
+            }
+            if (res.getString("compat.baseline") != null) {
+                compatibility(res, shard == null ? schemas : shard.owned(schemas));
+            }
+            if (res.getString("registry.url") != null) {
+                new Registry(res.getString("registry.url"), res.getString("registry.subject.template"), res.getInt("registry.connections"), res.getInt("registry.batch.size"), res.getBoolean("registry.references"))
+                        .export(shard == null ? schemas : shard.owned(schemas));
+            }
+        } finally {
+            if (report != null) {
+                Events.report(null);
+                write(reportJson, report::output);
             }
         }
-        inputs.sort(new AlphanumComparator());
 
-        Map<String, SchemaFile.Parsed> schemas = new Compose(inputFiles).compose();
+        if (res.getBoolean("watch")) {
+            new Watch(inputs, discovery, Arrays.asList(res.getString("output.schemas.directory"), res.getString("cache.dir")), res.getInt("parallelism"), schemas,
+                    (all, changed, removed) -> output(res, all, changed, removed, null)).run();
+        }
+    }
 
+    /**
+     * @param schemas all composed types, Maven output needs all of them
+     * @param changed types to write schema files for, together with other types sharing their output file
+     * @param removed types not composed any more, their schema files are deleted or written without them
+     * @param shard   when not null, schema files and manifest hold only types owned by the shard
+     */
+    private static void output(final Namespace res, final Map<String, SchemaFile.Parsed> schemas, final Map<String, SchemaFile.Parsed> changed, final Map<String, SchemaFile.Parsed> removed, final Shard shard) throws IOException {
         final String outputDirectory = res.getString("output.schemas.directory");
-        if (outputDirectory != null) {
+        if (outputDirectory != null && (!changed.isEmpty() || !removed.isEmpty())) {
             final String template = res.getString("output.schemas.filename.template");
-            new Schemas(schemas, outputDirectory, res.getString("output.schemas.format"), template).output();
+            // types of other shards rendered into the same file are written by their own shard
+            new Schemas(shard == null ? schemas : shard.owned(schemas), outputDirectory, res.getString("output.schemas.format"), template, res.getInt("parallelism")).output(changed.keySet(), removed);
+        }
+
+        final String javaDirectory = res.getString("output.java.directory");
+        if (javaDirectory != null) {
+            boolean all = res.getList("target") == null && shard == null;
+            new Codegen(shard == null ? schemas : shard.owned(schemas), javaDirectory, res.getString("cache.dir"), GenericData.StringType.valueOf(res.getString("output.java.string.type")), res.getInt("parallelism"), all).output();
         }
 
         final String mavenPom = res.getString("output.maven.pom");
         if (mavenPom != null) {
-            String mavenTemplate;
-            if (res.getString("output.maven.template.file") != null) {
-                mavenTemplate = IOUtils.toString(new File(res.getString("output.maven.template.file")).toURI(), "utf-8");
-            } else {
-                try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("mavenTemplate.jinja2.xml")) {
-                    mavenTemplate = IOUtils.toString(is, "utf-8");
-                }
+            Maven maven = new Maven(schemas, mavenTemplate(res));
+            write(mavenPom, maven::output);
+        }
+
+        final String references = res.getString("output.references");
+        if (references != null) {
+            Map<String, SchemaFile.Parsed> owned = shard == null ? schemas : shard.owned(schemas);
+            write(references, os -> References.output(owned, res.getString("registry.subject.template"), os));
+        }
+
+        final String manifest = res.getString("output.manifest");
+        if (manifest != null) {
+            Manifest owned = shard == null ? new Manifest(schemas) : new Manifest(shard.owned(schemas), shard);
+            write(manifest, owned::output);
+        }
+    }
+
+    private static void compatibility(final Namespace res, final Map<String, SchemaFile.Parsed> schemas) throws Exception {
+        final Compatibility.Report report;
+        try (Compatibility.Baseline baseline = Compatibility.Baseline.open(res.getString("compat.baseline"))) {
+            report = new Compatibility(baseline, Compatibility.Level.valueOf(res.getString("compat.level")), res.getString("cache.dir"), res.getInt("parallelism")).check(schemas);
+        }
+        final String compatReport = res.getString("compat.report");
+        if (compatReport != null) {
+            write(compatReport, report::output);
+        }
+        if (!report.incompatible().isEmpty()) {
+            throw new Exception("Types not " + res.getString("compat.level") + " compatible with baseline: " + report.incompatible());
+        }
+    }
+
+    /**
+     * Merges manifests of shards and writes the manifest and Maven imports from them.
+     */
+    private static void merge(final Namespace res) throws IOException {
+        List<Manifest> manifests = new ArrayList<>();
+        for (String filename : res.<String>getList("merge")) {
+            try (InputStream is = new FileInputStream(filename)) {
+                manifests.add(Manifest.read(is));
+            } catch (IOException ex) {
+                throw new IOException("Cannot read manifest: " + filename, ex);
             }
-            if ("-".equals(mavenPom)) {
-                new Maven(schemas, mavenTemplate).output(System.out);
-            } else {
-                try (OutputStream os = new FileOutputStream(mavenPom)) {
-                    new Maven(schemas, mavenTemplate).output(os);
-                }
+        }
+        Manifest merged = Manifest.merge(manifests);
+
+        final String mavenPom = res.getString("output.maven.pom");
+        if (mavenPom != null) {
+            Maven maven = merged.maven(mavenTemplate(res));
+            write(mavenPom, maven::output);
+        }
+
+        final String manifest = res.getString("output.manifest");
+        if (manifest != null) {
+            write(manifest, merged::output);
+        }
+    }
+
+    private static String mavenTemplate(final Namespace res) throws IOException {
+        if (res.getString("output.maven.template.file") != null) {
+            return IOUtils.toString(new File(res.getString("output.maven.template.file")).toURI(), "utf-8");
+        }
+        try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("mavenTemplate.jinja2.xml")) {
+            return IOUtils.toString(is, "utf-8");
+        }
+    }
+
+    private interface Output {
+        void output(OutputStream os) throws IOException;
+    }
+
+    /**
+     * @param path file to write, - for standard output
+     */
+    private static void write(final String path, final Output output) throws IOException {
+        if ("-".equals(path)) {
+            output.output(System.out);
+        } else {
+            try (OutputStream os = new FileOutputStream(path)) {
+                output.output(os);
             }
         }
     }
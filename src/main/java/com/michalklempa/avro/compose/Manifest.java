@@ -0,0 +1,115 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Manifest of all composed types, sorted by fullname, with source file, files the source depends on and fingerprints of their Parsing Canonical Form.
+ * Two manifests can be compared to find out which types changed, without parsing the schemas.
+ * Manifests of all shards (see {@link Shard}) merge into the manifest of a single run, Maven imports can be written from it.
+ */
+public class Manifest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private Map<String, ObjectNode> types = new TreeMap<>();
+    private Shard shard;
+
+    public Manifest(final Map<String, SchemaFile.Parsed> schemas) {
+        this(schemas, null);
+    }
+
+    /**
+     * @param schemas types owned by the shard
+     */
+    public Manifest(final Map<String, SchemaFile.Parsed> schemas, final Shard shard) {
+        Map<String, List<String>> dependencies = Maven.dependencies(schemas.values());
+        for (Map.Entry<String, SchemaFile.Parsed> entry : schemas.entrySet()) {
+            Fingerprint fingerprint = entry.getValue().fingerprint(entry.getKey());
+            ObjectNode type = OBJECT_MAPPER.createObjectNode();
+            type.put("fullname", entry.getKey());
+            type.put("source", entry.getValue().filename());
+            List<String> filenames = new ArrayList<>(dependencies.get(entry.getValue().filename()));
+            filenames.sort(null);
+            ArrayNode dependsOn = type.putArray("dependencies");
+            filenames.forEach(dependsOn::add);
+            type.put("crc64", fingerprint.crc64());
+            type.put("md5", fingerprint.md5());
+            type.put("sha256", fingerprint.sha256());
+            types.put(entry.getKey(), type);
+        }
+        this.shard = shard;
+    }
+
+    private Manifest() {
+    }
+
+    public static Manifest read(final InputStream is) throws IOException {
+        Manifest manifest = new Manifest();
+        for (JsonNode type : OBJECT_MAPPER.readTree(is).path("types")) {
+            if (!type.isObject() || !type.path("fullname").isTextual() || !type.path("source").isTextual()) {
+                throw new IOException("Manifest type entry must have fullname and source: " + type);
+            }
+            manifest.types.put(type.get("fullname").textValue(), (ObjectNode) type);
+        }
+        return manifest;
+    }
+
+    /**
+     * Manifest of all types of given (shard) manifests, the same a single run composing all of them writes.
+     *
+     * @throws IOException when the same type has different entries in two manifests
+     */
+    public static Manifest merge(final Collection<Manifest> manifests) throws IOException {
+        Manifest merged = new Manifest();
+        for (Manifest manifest : manifests) {
+            for (Map.Entry<String, ObjectNode> entry : manifest.types.entrySet()) {
+                ObjectNode previous = merged.types.putIfAbsent(entry.getKey(), entry.getValue());
+                if (previous != null && !previous.equals(entry.getValue())) {
+                    throw new IOException("Type: " + entry.getKey() + " differs between manifests: " + previous + " and " + entry.getValue());
+                }
+            }
+        }
+        return merged;
+    }
+
+    public Maven maven(final String mavenTemplate) {
+        Map<String, String> sources = new HashMap<>();
+        Map<String, List<String>> dependencies = new HashMap<>();
+        for (Map.Entry<String, ObjectNode> entry : types.entrySet()) {
+            String source = entry.getValue().get("source").textValue();
+            sources.put(entry.getKey(), source);
+            List<String> filenames = new ArrayList<>();
+            for (JsonNode dependency : entry.getValue().path("dependencies")) {
+                filenames.add(dependency.asText());
+            }
+            dependencies.put(source, filenames);
+        }
+        return new Maven(sources, dependencies, mavenTemplate);
+    }
+
+    public void output(OutputStream os) throws IOException {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        if (shard != null) {
+            root.put("shard", shard.toString());
+        }
+        root.putArray("types").addAll(types.values());
+        OBJECT_MAPPER.writeValue(os, root);
+        os.write('\n');
+    }
+}
@@ -6,18 +6,31 @@ import org.apache.commons.io.IOUtils;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 public class Maven {
-    private Map<String, SchemaFile.Parsed> schemas;
+    private Map<String, String> sources;
+    private Map<String, List<String>> dependencies;
     private String mavenTemplate;
 
     public Maven(final Map<String, SchemaFile.Parsed> schemas, final String mavenTemplate) {
-        this.schemas = schemas;
+        this(sources(schemas), dependencies(schemas.values()), mavenTemplate);
+    }
+
+    /**
+     * @param sources      file declaring the type, by type fullname
+     * @param dependencies files every file directly depends on, by file name
+     */
+    public Maven(final Map<String, String> sources, final Map<String, List<String>> dependencies, final String mavenTemplate) {
+        this.sources = new TreeMap<>(sources);
+        this.dependencies = dependencies;
         this.mavenTemplate = mavenTemplate;
     }
 
@@ -25,24 +38,70 @@ public class Maven {
         Jinjava jinjava = new Jinjava();
 
         Map<String, Object> context = new HashMap<>();
-        List<String> imports = new ArrayList<>();
-        Set<SchemaFile.Parsed> outputted = new HashSet<>();
-        for (SchemaFile.Parsed parsed : schemas.values()) {
-            append(outputted, imports, parsed);
-        }
-        context.put("imports", imports);
+        context.put("imports", order());
 
         IOUtils.write(jinjava.render(mavenTemplate, context), os, "utf-8");
     }
 
-    private void append(Set<SchemaFile.Parsed> outputted, List<String> imports, SchemaFile.Parsed parsed) {
-        if (outputted.contains(parsed)) {
+    /**
+     * @return files declaring the types, each one after all the files it depends on
+     */
+    public List<String> order() {
+        List<String> order = new ArrayList<>();
+        Set<String> outputted = new HashSet<>();
+        for (String filename : sources.values()) {
+            append(outputted, order, filename);
+        }
+        return order;
+    }
+
+    /**
+     * @return files every file directly depends on, by file name
+     */
+    public Map<String, List<String>> dependencies() {
+        return Collections.unmodifiableMap(dependencies);
+    }
+
+    private void append(Set<String> outputted, List<String> imports, String filename) {
+        if (outputted.contains(filename)) {
             return;
         }
-        for (SchemaFile.Parsed dependency : parsed.dependencies()) {
+        // dependencies are sorted, import order must not depend on the order files were parsed in
+        List<String> dependencies = new ArrayList<>(this.dependencies.getOrDefault(filename, Collections.emptyList()));
+        Collections.sort(dependencies);
+        for (String dependency : dependencies) {
             append(outputted, imports, dependency);
         }
-        imports.add(parsed.filename());
-        outputted.add(parsed);
+        imports.add(filename);
+        outputted.add(filename);
+    }
+
+    private static Map<String, String> sources(final Map<String, SchemaFile.Parsed> schemas) {
+        Map<String, String> sources = new HashMap<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : schemas.entrySet()) {
+            sources.put(entry.getKey(), entry.getValue().filename());
+        }
+        return sources;
+    }
+
+    /**
+     * @return direct dependencies of given files and of all the files they depend on
+     */
+    static Map<String, List<String>> dependencies(final Collection<SchemaFile.Parsed> files) {
+        Map<String, List<String>> dependencies = new HashMap<>();
+        List<SchemaFile.Parsed> queue = new ArrayList<>(files);
+        while (!queue.isEmpty()) {
+            SchemaFile.Parsed parsed = queue.remove(queue.size() - 1);
+            if (dependencies.containsKey(parsed.filename())) {
+                continue;
+            }
+            List<String> filenames = new ArrayList<>();
+            for (SchemaFile.Parsed dependency : parsed.dependencies()) {
+                filenames.add(dependency.filename());
+                queue.add(dependency);
+            }
+            dependencies.put(parsed.filename(), filenames);
+        }
+        return dependencies;
     }
 }
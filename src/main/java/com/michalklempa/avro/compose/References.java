@@ -0,0 +1,202 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.apache.avro.Schema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Types written with references: the type itself is defined, every other named type it uses is referred to by fullname,
+ * so each type is written once, not inlined into every type using it. Such type can be parsed only after the types it refers to,
+ * the same as schema registry references.
+ */
+public final class References {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectMapper SCHEMA_MAPPER = new ObjectMapper();
+
+    private References() {
+    }
+
+    /**
+     * @return JSON of the type, the same as {@link Schema#toString(boolean)}, except for named types other than
+     * the type itself, which are written as fullname
+     */
+    public static String json(final Schema schema, final boolean pretty) {
+        switch (schema.getType()) {
+            case RECORD:
+            case ENUM:
+            case FIXED:
+                return json(schema, Collections.singleton(schema.getFullName()), pretty);
+            default:
+                return json(schema, Collections.emptySet(), pretty);
+        }
+    }
+
+    /**
+     * Post-processes {@link Schema#toString()}: definitions of named types out of {@code defined} are replaced
+     * with their fullname, defined types stay where Avro writes them (on their first occurrence).
+     *
+     * @param defined fullnames of types to keep defined, e.g. all types declared by one file
+     */
+    public static String json(final Schema schema, final Set<String> defined, final boolean pretty) {
+        try {
+            JsonNode json = reference(SCHEMA_MAPPER.readTree(schema.toString()), null, defined);
+            return pretty ? SCHEMA_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(json) : SCHEMA_MAPPER.writeValueAsString(json);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return fullnames of named types the type refers to directly, sorted
+     */
+    public static Set<String> of(final Schema schema) {
+        Set<String> references = new TreeSet<>();
+        references(schema, true, references);
+        return references;
+    }
+
+    /**
+     * Writes schema registry references of every type: {@code {"<fullname>": [{"name": "<fullname>", "subject": "<subject>"}, ...]}},
+     * versions of referenced subjects are known only to the registry.
+     *
+     * @param subjectTemplate Jinja2 template of subject name, the same context as output filename template
+     */
+    public static void output(final Map<String, SchemaFile.Parsed> types, final String subjectTemplate, final OutputStream os) throws IOException {
+        TemplateName.Template template = TemplateName.compile(subjectTemplate);
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : new TreeMap<>(types).entrySet()) {
+            ArrayNode references = root.putArray(entry.getKey());
+            for (String reference : of(entry.getValue().types().get(entry.getKey()))) {
+                SchemaFile.Parsed parsed = types.get(reference);
+                ObjectNode node = references.addObject();
+                node.put("name", reference);
+                node.put("subject", parsed == null ? reference : template.render(reference, parsed));
+            }
+        }
+        OBJECT_MAPPER.writeValue(os, root);
+        os.write('\n');
+    }
+
+    /**
+     * @return types sorted by fullname, each one moved after the types it references
+     */
+    public static List<String> order(final Map<String, SchemaFile.Parsed> types) {
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (String type : new TreeMap<>(types).keySet()) {
+            append(type, types, visited, order);
+        }
+        return order;
+    }
+
+    private static void append(final String type, final Map<String, SchemaFile.Parsed> types, final Set<String> visited, final List<String> order) {
+        if (!visited.add(type)) {
+            return;
+        }
+        for (String reference : of(types.get(type).types().get(type))) {
+            if (types.containsKey(reference)) {
+                append(reference, types, visited, order);
+            }
+        }
+        order.add(type);
+    }
+
+    /**
+     * Named types the schema refers to, without descending into them.
+     */
+    private static void references(final Schema schema, final boolean root, final Set<String> references) {
+        switch (schema.getType()) {
+            case RECORD:
+                if (!root) {
+                    references.add(schema.getFullName());
+                    return;
+                }
+                for (Schema.Field field : schema.getFields()) {
+                    references(field.schema(), false, references);
+                }
+                return;
+            case ENUM:
+            case FIXED:
+                if (!root) {
+                    references.add(schema.getFullName());
+                }
+                return;
+            case ARRAY:
+                references(schema.getElementType(), false, references);
+                return;
+            case MAP:
+                references(schema.getValueType(), false, references);
+                return;
+            case UNION:
+                for (Schema branch : schema.getTypes()) {
+                    references(branch, false, references);
+                }
+                return;
+            default:
+        }
+    }
+
+    /**
+     * @param namespace enclosing namespace, the same as Avro keeps while writing the JSON
+     */
+    private static JsonNode reference(final JsonNode schema, final String namespace, final Set<String> defined) {
+        if (schema.isArray()) {
+            ArrayNode union = (ArrayNode) schema;
+            for (int i = 0; i < union.size(); i++) {
+                union.set(i, reference(union.get(i), namespace, defined));
+            }
+            return union;
+        }
+        if (!schema.isObject()) {
+            return schema;
+        }
+        ObjectNode object = (ObjectNode) schema;
+        switch (object.path("type").asText()) {
+            case "record":
+            case "error":
+            case "enum":
+            case "fixed":
+                String name = object.path("name").asText();
+                String space = object.has("namespace") ? object.get("namespace").asText() : namespace;
+                if (name.contains(".")) {
+                    space = name.substring(0, name.lastIndexOf('.'));
+                    name = name.substring(name.lastIndexOf('.') + 1);
+                }
+                String fullname = space == null || space.isEmpty() ? name : space + "." + name;
+                if (!defined.contains(fullname)) {
+                    return TextNode.valueOf(fullname);
+                }
+                for (JsonNode field : object.path("fields")) {
+                    ((ObjectNode) field).set("type", reference(field.get("type"), space, defined));
+                }
+                return object;
+            case "array":
+                object.set("items", reference(object.get("items"), namespace, defined));
+                return object;
+            case "map":
+                object.set("values", reference(object.get("values"), namespace, defined));
+                return object;
+            default:
+                return object;
+        }
+    }
+}
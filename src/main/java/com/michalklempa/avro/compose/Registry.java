@@ -0,0 +1,413 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.avro.Schema;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports composed types to Confluent compatible schema registry, one subject per type.
+ * <p>
+ * Latest versions of the exported subjects are read upfront in pages ({@code GET /schemas?latestOnly=true}, limited
+ * by {@code subjectPrefix} to the prefix all the exported subjects share), subjects already holding a schema with
+ * the same Parsing Canonical Form fingerprint are skipped. Registries without this endpoint are asked subject
+ * by subject ({@code POST /subjects/{subject}}). Types are registered in the dependency order
+ * of {@link Maven#order()}: types with the same depth in the dependency graph are registered at the same time,
+ * requests are spread over a few connections kept alive by {@link HttpURLConnection}.
+ * <p>
+ * With references, every type is registered as written by {@link References}, with schema registry references
+ * to the subjects of the types it refers to, in their latest versions. Subject is skipped only when its latest schema
+ * refers to the same versions and has the same fingerprint.
+ */
+public class Registry {
+    private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static Logger logger = LoggerFactory.getLogger(Registry.class);
+
+    private String url;
+    private String subjectTemplate;
+    private int connections;
+    private int batchSize;
+    private boolean references;
+    private final Map<String, Integer> versions = new ConcurrentHashMap<>();
+
+    public Registry(final String url, final String subjectTemplate, final int connections, final int batchSize) {
+        this(url, subjectTemplate, connections, batchSize, false);
+    }
+
+    /**
+     * @param subjectTemplate Jinja2 template of subject name, the same context as output filename template
+     * @param connections     requests sent at the same time, keep it below http.maxConnections (default 5)
+     * @param batchSize       subjects read in one request
+     * @param references      register types with references instead of inlining all the types they use
+     */
+    public Registry(final String url, final String subjectTemplate, final int connections, final int batchSize, final boolean references) {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.subjectTemplate = subjectTemplate;
+        this.connections = connections;
+        this.batchSize = batchSize;
+        this.references = references;
+    }
+
+    /**
+     * @return number of subjects registered, the rest were already registered
+     */
+    public int export(final Map<String, SchemaFile.Parsed> schemas) throws IOException {
+        TemplateName.Template template = TemplateName.compile(subjectTemplate);
+        Map<String, String> subjects = new TreeMap<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : schemas.entrySet()) {
+            subjects.put(entry.getKey(), template.render(entry.getKey(), entry.getValue()));
+        }
+
+        versions.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, connections));
+        try {
+            Map<String, Registered> registered = latest(subjects.values());
+            AtomicInteger skipped = new AtomicInteger();
+            AtomicInteger added = new AtomicInteger();
+            // the next wave refers to versions registered by this one
+            for (List<String> wave : waves(schemas)) {
+                List<String> missing = new ArrayList<>();
+                run(executor, wave, type -> {
+                    if (exists(subjects.get(type), schemas.get(type), type, subjects, registered)) {
+                        skipped.incrementAndGet();
+                    } else {
+                        synchronized (missing) {
+                            missing.add(type);
+                        }
+                    }
+                });
+                Collections.sort(missing);
+                run(executor, missing, type -> {
+                    int id = register(subjects.get(type), body(schemas.get(type).types().get(type), subjects, registered));
+                    logger.debug("Registered type: {} as subject: {}, id: {}", type, subjects.get(type), id);
+                    added.incrementAndGet();
+                });
+            }
+            logger.info("Schema registry: {} subjects, {} registered, {} already registered.", subjects.size(), added.get(), skipped.get());
+            return added.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return types grouped by depth in the dependency graph, every group depends only on the previous ones,
+     * files are walked in {@link Maven#order()}, types in a file after the types they refer to
+     */
+    private static List<List<String>> waves(final Map<String, SchemaFile.Parsed> schemas) {
+        Map<String, String> sources = new HashMap<>();
+        Map<String, Map<String, SchemaFile.Parsed>> declared = new HashMap<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : schemas.entrySet()) {
+            sources.put(entry.getKey(), entry.getValue().filename());
+            declared.computeIfAbsent(entry.getValue().filename(), k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        Maven maven = new Maven(sources, Maven.dependencies(schemas.values()), null);
+        Map<String, Integer> depths = new HashMap<>();
+        List<List<String>> waves = new ArrayList<>();
+        for (String filename : maven.order()) {
+            for (String type : References.order(declared.getOrDefault(filename, Collections.emptyMap()))) {
+                int depth = 0;
+                for (String reference : References.of(schemas.get(type).types().get(type))) {
+                    depth = Math.max(depth, depths.getOrDefault(reference, -1) + 1);
+                }
+                depths.put(type, depth);
+                while (waves.size() <= depth) {
+                    waves.add(new ArrayList<>());
+                }
+                waves.get(depth).add(type);
+            }
+        }
+        return waves;
+    }
+
+    private interface Task {
+        void run(String type) throws IOException;
+    }
+
+    private static void run(final ExecutorService executor, final List<String> types, final Task task) throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (String type : types) {
+            futures.add(executor.submit(() -> {
+                try {
+                    task.run(type);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * @param exported subjects of the exported types
+     * @return latest schema of every exported subject registered, null when the registry cannot list schemas
+     */
+    private Map<String, Registered> latest(final Collection<String> exported) throws IOException {
+        Set<String> wanted = new HashSet<>(exported);
+        // registries ignoring the prefix list all the subjects, the rest is left out here
+        String prefix = prefix(wanted);
+        String filter = prefix.isEmpty() ? "" : "&subjectPrefix=" + encode(prefix);
+        Map<String, Registered> registered = new HashMap<>();
+        for (int offset = 0; ; offset += batchSize) {
+            Response response = request("GET", "/schemas?latestOnly=true" + filter + "&offset=" + offset + "&limit=" + batchSize, null);
+            if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+                logger.info("Schema registry: {} cannot list schemas, asking for every subject.", url);
+                return null;
+            }
+            response.check("GET /schemas");
+            JsonNode page = OBJECT_MAPPER.readTree(response.body);
+            for (JsonNode node : page) {
+                if (node.path("schemaType").asText("AVRO").equals("AVRO") && wanted.contains(node.path("subject").asText())) {
+                    registered.put(node.path("subject").asText(), new Registered(node.path("schema").asText(), node.path("version").asInt(), node.path("references")));
+                }
+            }
+            if (page.size() < batchSize) {
+                logger.debug("Schema registry: {} holds {} of {} exported subjects", url, registered.size(), wanted.size());
+                return registered;
+            }
+        }
+    }
+
+    /**
+     * @return the longest prefix all the subjects start with
+     */
+    private static String prefix(final Collection<String> subjects) {
+        String prefix = null;
+        for (String subject : subjects) {
+            if (prefix == null) {
+                prefix = subject;
+            }
+            int length = 0;
+            while (length < Math.min(prefix.length(), subject.length()) && prefix.charAt(length) == subject.charAt(length)) {
+                length++;
+            }
+            prefix = prefix.substring(0, length);
+        }
+        return prefix == null ? "" : prefix;
+    }
+
+    private boolean exists(final String subject, final SchemaFile.Parsed parsed, final String type, final Map<String, String> subjects, final Map<String, Registered> registered) throws IOException {
+        Schema schema = parsed.types().get(type);
+        if (registered == null) {
+            Response response = request("POST", "/subjects/" + encode(subject), body(schema, subjects, null));
+            if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            response.check("POST /subjects/" + subject);
+            versions.put(subject, OBJECT_MAPPER.readTree(response.body).path("version").asInt());
+            return true;
+        }
+        Registered latest = registered.get(subject);
+        if (latest == null || !latest.references.equals(references(schema, subjects, registered))) {
+            return false;
+        }
+        // types referred to are registered before, their latest versions are the same as the composed ones
+        Map<String, Schema> used = new HashMap<>();
+        collect(schema, used);
+        Map<String, Schema> named = new HashMap<>();
+        for (JsonNode reference : latest.references) {
+            named.put(reference.path("name").asText(), used.get(reference.path("name").asText()));
+        }
+        try {
+            Schema.Parser parser = new Schema.Parser();
+            parser.addTypes(named);
+            if (!Fingerprint.of(parser.parse(latest.schema)).crc64().equals(parsed.fingerprint(type).crc64())) {
+                return false;
+            }
+        } catch (RuntimeException ex) {
+            logger.debug("Schema of subject: {} cannot be parsed, registering it again.", subject, ex);
+            return false;
+        }
+        versions.put(subject, latest.version);
+        return true;
+    }
+
+    private int register(final String subject, final byte[] body) throws IOException {
+        Response response = request("POST", "/subjects/" + encode(subject) + "/versions", body);
+        response.check("POST /subjects/" + subject + "/versions");
+        int id = OBJECT_MAPPER.readTree(response.body).path("id").asInt();
+        if (references) {
+            // registry answers with id only, types referring to this one need its version
+            Response lookup = request("POST", "/subjects/" + encode(subject), body);
+            lookup.check("POST /subjects/" + subject);
+            versions.put(subject, OBJECT_MAPPER.readTree(lookup.body).path("version").asInt());
+        }
+        return id;
+    }
+
+    private byte[] body(final Schema schema, final Map<String, String> subjects, final Map<String, Registered> registered) throws IOException {
+        ObjectNode body = OBJECT_MAPPER.createObjectNode();
+        if (references) {
+            body.put("schema", References.json(schema, false));
+            body.set("references", references(schema, subjects, registered));
+        } else {
+            body.put("schema", schema.toString(false));
+        }
+        return OBJECT_MAPPER.writeValueAsBytes(body);
+    }
+
+    /**
+     * @return schema registry references of the type, empty without references
+     */
+    private ArrayNode references(final Schema schema, final Map<String, String> subjects, final Map<String, Registered> registered) throws IOException {
+        ArrayNode array = OBJECT_MAPPER.createArrayNode();
+        if (!references) {
+            return array;
+        }
+        for (String reference : References.of(schema)) {
+            // types not exported now (other shards) have no file to render the subject from
+            String subject = subjects.getOrDefault(reference, reference);
+            ObjectNode node = array.addObject();
+            node.put("name", reference);
+            node.put("subject", subject);
+            node.put("version", version(subject, registered));
+        }
+        return array;
+    }
+
+    /**
+     * @return version of a subject registered or checked by this export, or the latest version of a subject outside of it
+     */
+    private int version(final String subject, final Map<String, Registered> registered) throws IOException {
+        Integer version = versions.get(subject);
+        if (version != null) {
+            return version;
+        }
+        if (registered != null && registered.containsKey(subject)) {
+            return registered.get(subject).version;
+        }
+        Response response = request("GET", "/subjects/" + encode(subject) + "/versions/latest", null);
+        response.check("GET /subjects/" + subject + "/versions/latest");
+        version = OBJECT_MAPPER.readTree(response.body).path("version").asInt();
+        versions.put(subject, version);
+        return version;
+    }
+
+    /**
+     * Named types used by the schema, the schema itself included.
+     */
+    private static void collect(final Schema schema, final Map<String, Schema> named) {
+        switch (schema.getType()) {
+            case RECORD:
+                if (named.putIfAbsent(schema.getFullName(), schema) == null) {
+                    for (Schema.Field field : schema.getFields()) {
+                        collect(field.schema(), named);
+                    }
+                }
+                return;
+            case ENUM:
+            case FIXED:
+                named.putIfAbsent(schema.getFullName(), schema);
+                return;
+            case ARRAY:
+                collect(schema.getElementType(), named);
+                return;
+            case MAP:
+                collect(schema.getValueType(), named);
+                return;
+            case UNION:
+                for (Schema branch : schema.getTypes()) {
+                    collect(branch, named);
+                }
+                return;
+            default:
+        }
+    }
+
+    private static String encode(final String subject) throws IOException {
+        return URLEncoder.encode(subject, "UTF-8").replace("+", "%20");
+    }
+
+    /**
+     * Reads the whole response, also on error, so the connection is kept alive for the next request.
+     */
+    private Response request(final String method, final String path, final byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", CONTENT_TYPE + ", application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new Response(status, is == null ? new byte[0] : IOUtils.toByteArray(is));
+        }
+    }
+
+    private static class Registered {
+        private final String schema;
+        private final int version;
+        private final JsonNode references;
+
+        Registered(final String schema, final int version, final JsonNode references) {
+            this.schema = schema;
+            this.version = version;
+            this.references = references.isArray() ? references : OBJECT_MAPPER.createArrayNode();
+        }
+    }
+
+    private static class Response {
+        private final int status;
+        private final byte[] body;
+
+        Response(final int status, final byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        void check(final String request) throws IOException {
+            if (status >= 300) {
+                throw new IOException("Schema registry request: " + request + " failed with status: " + status + ", " + new String(body, StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
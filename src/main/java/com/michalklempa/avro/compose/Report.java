@@ -0,0 +1,122 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance report of a run, collected from {@link Events}: attempts and retry causes of every input file,
+ * time spent parsing, rendering and writing, bytes read and written and the largest type table given to the parser.
+ * Safe for concurrent use, written as JSON with files sorted by name.
+ */
+public class Report {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final Map<String, FileReport> files = new ConcurrentSkipListMap<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicInteger peakTypeTable = new AtomicInteger();
+
+    void read(final String filename, final int bytes) {
+        bytesRead.addAndGet(bytes);
+        file(filename).bytesRead.addAndGet(bytes);
+    }
+
+    void attempt(final String filename, final int dependencyTypes, final String cause, final long duration) {
+        attempts.incrementAndGet();
+        parseNanos.addAndGet(duration);
+        peakTypeTable.accumulateAndGet(dependencyTypes, Math::max);
+        FileReport file = file(filename);
+        file.attempts.incrementAndGet();
+        file.parseNanos.addAndGet(duration);
+        if (cause != null) {
+            synchronized (file.retryCauses) {
+                file.retryCauses.add(cause);
+            }
+        }
+    }
+
+    void blocked(final String filename, final long duration) {
+        file(filename).blockedNanos.addAndGet(duration);
+    }
+
+    void render(final long duration) {
+        renderNanos.addAndGet(duration);
+    }
+
+    void write(final int bytes, final boolean written, final long duration) {
+        writeNanos.addAndGet(duration);
+        if (written) {
+            bytesWritten.addAndGet(bytes);
+            this.written.incrementAndGet();
+        } else {
+            unchanged.incrementAndGet();
+        }
+    }
+
+    private FileReport file(final String filename) {
+        return files.computeIfAbsent(filename, f -> new FileReport());
+    }
+
+    public void output(final OutputStream os) throws IOException {
+        ObjectNode root = OBJECT_MAPPER.createObjectNode();
+        root.put("files", files.size());
+        root.put("attempts", attempts.get());
+        root.put("parseMillis", millis(parseNanos.get()));
+        root.put("bytesRead", bytesRead.get());
+        root.put("peakTypeTable", peakTypeTable.get());
+        ObjectNode output = root.putObject("output");
+        output.put("written", written.get());
+        output.put("unchanged", unchanged.get());
+        output.put("bytesWritten", bytesWritten.get());
+        output.put("renderMillis", millis(renderNanos.get()));
+        output.put("writeMillis", millis(writeNanos.get()));
+        ArrayNode details = root.putArray("details");
+        for (Map.Entry<String, FileReport> entry : files.entrySet()) {
+            FileReport file = entry.getValue();
+            ObjectNode node = details.addObject();
+            node.put("filename", entry.getKey());
+            node.put("attempts", file.attempts.get());
+            node.put("parseMillis", millis(file.parseNanos.get()));
+            node.put("blockedMillis", millis(file.blockedNanos.get()));
+            node.put("bytesRead", file.bytesRead.get());
+            ArrayNode retryCauses = node.putArray("retryCauses");
+            synchronized (file.retryCauses) {
+                file.retryCauses.forEach(retryCauses::add);
+            }
+        }
+        OBJECT_MAPPER.writeValue(os, root);
+        os.write('\n');
+    }
+
+    private static double millis(final long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static class FileReport {
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicLong parseNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final List<String> retryCauses = new ArrayList<>();
+    }
+}
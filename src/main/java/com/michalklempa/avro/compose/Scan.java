@@ -0,0 +1,293 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of a single streaming pass over a schema file, without using Avro parser.
+ * Collects fullnames of named types declared in the file and names the file references,
+ * resolving namespaces the same way {@link org.apache.avro.Schema.Parser} does.
+ */
+public class Scan {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Set<String> PRIMITIVES = new HashSet<>(Arrays.asList("null", "boolean", "int", "long", "float", "double", "bytes", "string"));
+
+    private final String filename;
+    private final Set<String> declarations;
+    private final List<Reference> references;
+
+    public Scan(final String filename, final Set<String> declarations, final List<Reference> references) {
+        this.filename = filename;
+        this.declarations = Collections.unmodifiableSet(declarations);
+        this.references = Collections.unmodifiableList(references);
+    }
+
+    public static Scan file(final String filename) throws IOException {
+        try (InputStream is = Sources.open(filename)) {
+            return scan(filename, is);
+        }
+    }
+
+    public static Scan scan(final String filename, final InputStream is) throws IOException {
+        Collected collected = new Collected();
+        try (JsonParser parser = JSON_FACTORY.createParser(is)) {
+            parser.nextToken();
+            collected.addAll(value(parser, null));
+        }
+
+        Set<String> declarations = new LinkedHashSet<>();
+        for (Scope scope : collected.declarations) {
+            declarations.add(scope.fullname());
+        }
+        List<Reference> references = new ArrayList<>();
+        for (UnresolvedReference reference : collected.references) {
+            Reference resolved = reference.resolve();
+            if (!declarations.contains(resolved.candidates().get(0)) && !references.contains(resolved)) {
+                references.add(resolved);
+            }
+        }
+        return new Scan(filename, declarations, references);
+    }
+
+    public String filename() {
+        return filename;
+    }
+
+    /**
+     * @return fullnames of all named types (record, error, enum, fixed) declared in this file, nested ones included
+     */
+    public Set<String> declarations() {
+        return declarations;
+    }
+
+    /**
+     * @return references to named types, which are not declared in this file
+     */
+    public List<Reference> references() {
+        return references;
+    }
+
+    private static Collected value(final JsonParser parser, final Scope scope) throws IOException {
+        Collected collected = new Collected();
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            if (!PRIMITIVES.contains(parser.getText())) {
+                collected.references.add(new UnresolvedReference(parser.getText(), scope, true));
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                collected.addAll(value(parser, scope));
+            }
+        } else if (token == JsonToken.START_OBJECT) {
+            collected.addAll(object(parser, scope));
+        } else {
+            parser.skipChildren();
+        }
+        return collected;
+    }
+
+    private static Collected object(final JsonParser parser, final Scope parent) throws IOException {
+        Scope scope = new Scope(parent);
+        String type = null;
+        Collected fields = new Collected();
+        Collected items = new Collected();
+        Collected values = new Collected();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("type".equals(key) && token == JsonToken.VALUE_STRING) {
+                type = parser.getText();
+            } else if ("name".equals(key) && token == JsonToken.VALUE_STRING) {
+                scope.name = parser.getText();
+            } else if ("namespace".equals(key) && token == JsonToken.VALUE_STRING) {
+                scope.namespace = parser.getText();
+            } else if ("fields".equals(key) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    fields.addAll(field(parser, scope));
+                }
+            } else if ("items".equals(key)) {
+                items.addAll(value(parser, scope));
+            } else if ("values".equals(key)) {
+                values.addAll(value(parser, scope));
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        Collected collected = new Collected();
+        if (type == null || PRIMITIVES.contains(type)) {
+            return collected;
+        }
+        switch (type) {
+            case "record":
+            case "error":
+                scope.declare(collected);
+                collected.addAll(fields);
+                break;
+            case "enum":
+            case "fixed":
+                scope.declare(collected);
+                break;
+            case "array":
+                collected.addAll(items);
+                break;
+            case "map":
+                collected.addAll(values);
+                break;
+            default:
+                // {"type": "SomeName"} is resolved only against the current namespace
+                collected.references.add(new UnresolvedReference(type, parent, false));
+        }
+        return collected;
+    }
+
+    private static Collected field(final JsonParser parser, final Scope scope) throws IOException {
+        Collected collected = new Collected();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return collected;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            if ("type".equals(key)) {
+                collected.addAll(value(parser, scope));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return collected;
+    }
+
+    private static String fullname(final String name, final String space) {
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot >= 0) {
+            return name;
+        }
+        return space == null || space.isEmpty() ? name : space + "." + name;
+    }
+
+    /**
+     * Name referenced from schema file. Candidates are fullnames in the order Avro tries to look them up,
+     * unqualified names written as plain JSON string also fall back to the null namespace.
+     */
+    public static class Reference {
+        private final String name;
+        private final List<String> candidates;
+
+        public Reference(final String name, final List<String> candidates) {
+            this.name = name;
+            this.candidates = Collections.unmodifiableList(candidates);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public List<String> candidates() {
+            return candidates;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return candidates.equals(((Reference) o).candidates);
+        }
+
+        @Override
+        public int hashCode() {
+            return candidates.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name + candidates;
+        }
+    }
+
+    /**
+     * Namespace of enclosing named type is known only after its JSON object is read completely,
+     * since "namespace" and "name" keys may come after "fields". Therefore names are resolved lazily.
+     */
+    private static class Scope {
+        private final Scope parent;
+        private String name;
+        private String namespace;
+        private boolean named;
+
+        Scope(final Scope parent) {
+            this.parent = parent;
+        }
+
+        void declare(final Collected collected) {
+            if (name != null) {
+                named = true;
+                collected.declarations.add(this);
+            }
+        }
+
+        String space() {
+            if (!named) {
+                return parent == null ? null : parent.space();
+            }
+            int lastDot = name.lastIndexOf('.');
+            if (lastDot >= 0) {
+                return name.substring(0, lastDot);
+            }
+            String space = namespace != null ? namespace : (parent == null ? null : parent.space());
+            return space == null || space.isEmpty() ? null : space;
+        }
+
+        String fullname() {
+            return Scan.fullname(name, space());
+        }
+    }
+
+    private static class UnresolvedReference {
+        private final String name;
+        private final Scope scope;
+        private final boolean lenient;
+
+        UnresolvedReference(final String name, final Scope scope, final boolean lenient) {
+            this.name = name;
+            this.scope = scope;
+            this.lenient = lenient;
+        }
+
+        Reference resolve() {
+            List<String> candidates = new ArrayList<>();
+            candidates.add(fullname(name, scope == null ? null : scope.space()));
+            if (lenient && !candidates.contains(name)) {
+                candidates.add(name);
+            }
+            return new Reference(name, candidates);
+        }
+    }
+
+    private static class Collected {
+        private final List<Scope> declarations = new ArrayList<>();
+        private final List<UnresolvedReference> references = new ArrayList<>();
+
+        void addAll(final Collected other) {
+            declarations.addAll(other.declarations);
+            references.addAll(other.references);
+        }
+    }
+}
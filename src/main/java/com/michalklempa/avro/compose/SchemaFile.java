@@ -1,17 +1,24 @@
 package com.michalklempa.avro.compose;
 
 import org.apache.avro.Schema;
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
-import org.apache.commons.lang3.builder.ToStringStyle;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public interface SchemaFile {
     String name();
@@ -20,18 +27,37 @@ public interface SchemaFile {
 
     interface Attempt extends SchemaFile {
         Set<SchemaFile.Parsed> dependencies();
+
+        /**
+         * @return content of the file, read once before the first attempt and carried by all further attempts,
+         * null when not read yet, parsed files do not hold it
+         */
+        byte[] content();
     }
 
     interface Parsed extends Attempt {
         Set<String> declarations();
 
+        /**
+         * @return only the types declared in this file, types of dependencies are resolved through their own {@link Parsed}
+         */
         Map<String, Schema> types();
+
+        /**
+         * @return the root schema of the file, as returned by the parser
+         */
+        Schema schema();
+
+        /**
+         * @return fingerprints of one of the declared types, computed once
+         */
+        Fingerprint fingerprint(String type);
     }
 
     interface Blocked extends Attempt {
         Exception exception();
 
-        String requiredType();
+        Set<String> requiredTypes();
     }
 
     abstract class AbstractSchemaFile implements SchemaFile {
@@ -51,36 +77,57 @@ public interface SchemaFile {
 
         @Override
         public String toString() {
-            return new ReflectionToStringBuilder(this, ToStringStyle.JSON_STYLE).toString();
+            return getClass().getSimpleName() + "{filename=" + filename + "}";
         }
 
     }
 
     class AttemptSchemaFile extends AbstractSchemaFile implements Attempt {
         protected final Set<SchemaFile.Parsed> dependencies;
+        protected final byte[] content;
 
         public AttemptSchemaFile(final String filename) {
             this(filename, Collections.emptySet());
         }
 
         public AttemptSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies) {
+            this(filename, dependencies, null);
+        }
+
+        public AttemptSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, final byte[] content) {
             super(filename);
             this.dependencies = Collections.unmodifiableSet(dependencies);
+            this.content = content;
         }
 
         public Set<SchemaFile.Parsed> dependencies() {
             return dependencies;
         }
+
+        public byte[] content() {
+            return content;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder string = new StringBuilder(getClass().getSimpleName()).append("{filename=").append(filename).append(", dependencies=[");
+            String separator = "";
+            for (SchemaFile.Parsed dependency : dependencies) {
+                string.append(separator).append(dependency.filename());
+                separator = ", ";
+            }
+            return string.append("]}").toString();
+        }
     }
 
     class BlockedSchemaFile extends AttemptSchemaFile implements Blocked {
         protected final Exception exception;
-        protected final String requiredType;
+        protected final Set<String> requiredTypes;
 
-        public BlockedSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, final Exception exception, final String requiredType) {
-            super(filename, dependencies);
+        public BlockedSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, final byte[] content, final Exception exception, final Set<String> requiredTypes) {
+            super(filename, dependencies, content);
             this.exception = exception;
-            this.requiredType = requiredType;
+            this.requiredTypes = Collections.unmodifiableSet(requiredTypes);
         }
 
         public Exception exception() {
@@ -88,21 +135,24 @@ public interface SchemaFile {
         }
 
         @Override
-        public String requiredType() {
-            return requiredType;
+        public Set<String> requiredTypes() {
+            return requiredTypes;
         }
     }
 
     class ParsedSchemaFile extends AttemptSchemaFile implements SchemaFile.Parsed {
         private final Map<String, Schema> types;
+        private final Schema schema;
         private Set<String> declarations;
+        private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
 
-        public ParsedSchemaFile(SchemaFile.Attempt attempt, Map<String, Schema> types, Set<String> declarations) {
-            this(attempt.filename(), attempt.dependencies(), types, declarations);
+        public ParsedSchemaFile(SchemaFile.Attempt attempt, Schema schema, Map<String, Schema> types, Set<String> declarations) {
+            this(attempt.filename(), attempt.dependencies(), schema, types, declarations);
         }
 
-        public ParsedSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, Map<String, Schema> types, Set<String> declarations) {
+        public ParsedSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, Schema schema, Map<String, Schema> types, Set<String> declarations) {
             super(filename, dependencies);
+            this.schema = schema;
             this.types = Collections.unmodifiableMap(types);
             this.declarations = Collections.unmodifiableSet(declarations);
         }
@@ -114,6 +164,65 @@ public interface SchemaFile {
         public Map<String, Schema> types() {
             return types;
         }
+
+        public Schema schema() {
+            return schema;
+        }
+
+        public Fingerprint fingerprint(final String type) {
+            return fingerprints.computeIfAbsent(type, t -> Fingerprint.of(types.get(t)));
+        }
+    }
+
+    /**
+     * File unchanged since the last run, restored from {@link Cache} with its declarations, dependencies and JSON of its own types,
+     * see {@link References#json(Schema, Set, boolean)}. Types are parsed from that JSON only when somebody asks for them,
+     * with all dependencies added upfront, no retries needed and the file itself is not read.
+     */
+    class CachedSchemaFile extends AttemptSchemaFile implements SchemaFile.Parsed {
+        private final Set<String> declarations;
+        private final String json;
+        private volatile Parsed parsed;
+
+        public CachedSchemaFile(final String filename, final Set<SchemaFile.Parsed> dependencies, final Set<String> declarations, final String json) {
+            super(filename, dependencies);
+            this.declarations = Collections.unmodifiableSet(declarations);
+            this.json = json;
+        }
+
+        public Set<String> declarations() {
+            return declarations;
+        }
+
+        public Map<String, Schema> types() {
+            return materialize().types();
+        }
+
+        public Schema schema() {
+            return materialize().schema();
+        }
+
+        public Fingerprint fingerprint(final String type) {
+            return materialize().fingerprint(type);
+        }
+
+        private Parsed materialize() {
+            if (parsed == null) {
+                synchronized (this) {
+                    if (parsed == null) {
+                        Events.Span span = Events.begin(Events.Kind.ATTEMPT);
+                        Attempt attempt = new AttemptSchemaFile(filename, dependencies, json.getBytes(StandardCharsets.UTF_8));
+                        try {
+                            parsed = Factory.parsed(attempt);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                        Events.attempt(span, attempt, 1, null);
+                    }
+                }
+            }
+            return parsed;
+        }
     }
 
     class Factory {
@@ -122,34 +231,68 @@ public interface SchemaFile {
             return new AttemptSchemaFile(filename);
         }
 
+        public static Attempt attempt(String filename, byte[] content) {
+            return new AttemptSchemaFile(filename, Collections.emptySet(), content);
+        }
+
         public static Attempt attempt(Attempt attempt, SchemaFile.Parsed dependency) {
-            Set<SchemaFile.Parsed> dependencies = new HashSet<>();
+            Set<SchemaFile.Parsed> dependencies = new LinkedHashSet<>();
             dependencies.addAll(attempt.dependencies());
             dependencies.add(dependency);
-            return new AttemptSchemaFile(attempt.filename(), dependencies);
+            return new AttemptSchemaFile(attempt.filename(), dependencies, attempt.content());
+        }
+
+        public static Attempt attempt(Attempt attempt, Collection<SchemaFile.Parsed> dependencies) {
+            if (attempt.dependencies().containsAll(dependencies)) {
+                return attempt;
+            }
+            Set<SchemaFile.Parsed> all = new LinkedHashSet<>();
+            all.addAll(attempt.dependencies());
+            all.addAll(dependencies);
+            return new AttemptSchemaFile(attempt.filename(), all, attempt.content());
         }
 
         public static Parsed parsed(Attempt schemaFile) throws IOException {
             Schema.Parser parser = new Schema.Parser();
-            for (SchemaFile.Parsed dependency : schemaFile.dependencies()) {
-                parser.addTypes(dependency.types());
+            // direct dependencies are enough, their schemas already hold references to nested types.
+            // Two files may declare the same name, Avro refuses to add the same name twice,
+            // the file first by filename wins, whatever order the dependencies were collected in
+            List<SchemaFile.Parsed> dependencies = new ArrayList<>(schemaFile.dependencies());
+            dependencies.sort(Comparator.comparing(SchemaFile.Parsed::filename));
+            Map<String, Schema> dependencyTypes = new HashMap<>();
+            for (SchemaFile.Parsed dependency : dependencies) {
+                for (Map.Entry<String, Schema> entry : dependency.types().entrySet()) {
+                    dependencyTypes.putIfAbsent(entry.getKey(), entry.getValue());
+                }
             }
-            try (InputStream is = new FileInputStream(schemaFile.filename())) {
-                Set<String> typeNames = new HashSet<>();
-                typeNames.addAll(parser.getTypes().keySet());
-
-                parser.parse(is);
+            parser.addTypes(dependencyTypes);
+            // parsed file does not keep the content, see ParsedSchemaFile
+            byte[] content = schemaFile.content();
+            if (content == null) {
+                Events.Span span = Events.begin(Events.Kind.READ);
+                content = Sources.read(schemaFile.filename());
+                Events.read(span, schemaFile.filename(), content.length);
+            }
+            try (InputStream is = new ByteArrayInputStream(content)) {
+                Schema schema = parser.parse(is);
 
-                Set<String> declarations = new HashSet<>();
-                declarations.addAll(parser.getTypes().keySet());
-                declarations.removeAll(typeNames);
+                Map<String, Schema> declared = new LinkedHashMap<>();
+                for (Map.Entry<String, Schema> entry : parser.getTypes().entrySet()) {
+                    if (!dependencyTypes.containsKey(entry.getKey())) {
+                        declared.put(entry.getKey(), entry.getValue());
+                    }
+                }
 
-                return new ParsedSchemaFile(schemaFile, parser.getTypes(), declarations);
+                return new ParsedSchemaFile(schemaFile, schema, declared, declared.keySet());
             }
         }
 
-        public static Blocked blocked(final SchemaFile.Attempt attempt, final Exception ex, final String requiredType) {
-            return new BlockedSchemaFile(attempt.filename(), attempt.dependencies(), ex, requiredType);
+        public static Parsed cached(final String filename, final Set<SchemaFile.Parsed> dependencies, final Set<String> declarations, final String json) {
+            return new CachedSchemaFile(filename, dependencies, declarations, json);
+        }
+
+        public static Blocked blocked(final SchemaFile.Attempt attempt, final Exception ex, final Set<String> requiredTypes) {
+            return new BlockedSchemaFile(attempt.filename(), attempt.dependencies(), attempt.content(), ex, requiredTypes);
         }
     }
 
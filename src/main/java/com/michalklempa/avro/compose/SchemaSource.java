@@ -0,0 +1,66 @@
+package com.michalklempa.avro.compose;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Schema file content given to {@link Compose} (or {@link ComposeEngine}) directly, instead of reading it by file name.
+ * File name is used the same way as for files on disk: in log messages, as {@link SchemaFile#filename()}
+ * and in source.* output filename template variables.
+ */
+public interface SchemaSource {
+    String filename();
+
+    byte[] content() throws IOException;
+
+    class FileSchemaSource implements SchemaSource {
+        private final String filename;
+
+        public FileSchemaSource(final String filename) {
+            this.filename = filename;
+        }
+
+        public String filename() {
+            return filename;
+        }
+
+        public byte[] content() throws IOException {
+            return Sources.read(filename);
+        }
+    }
+
+    class BytesSchemaSource implements SchemaSource {
+        private final String filename;
+        private final byte[] content;
+
+        public BytesSchemaSource(final String filename, final byte[] content) {
+            this.filename = filename;
+            this.content = content;
+        }
+
+        public String filename() {
+            return filename;
+        }
+
+        public byte[] content() {
+            return content;
+        }
+    }
+
+    class Factory {
+        /**
+         * @param filename file on disk, archive entry or classpath resource, see {@link Sources}
+         */
+        public static SchemaSource file(final String filename) {
+            return new FileSchemaSource(filename);
+        }
+
+        public static SchemaSource bytes(final String filename, final byte[] content) {
+            return new BytesSchemaSource(filename, content);
+        }
+
+        public static SchemaSource string(final String filename, final String json) {
+            return new BytesSchemaSource(filename, json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
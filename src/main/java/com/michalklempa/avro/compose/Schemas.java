@@ -1,15 +1,44 @@
 package com.michalklempa.avro.compose;
 
+import org.apache.avro.Schema;
 import org.apache.avro.SchemaNormalization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
+/**
+ * Writes composed types into output directory. Types are grouped by rendered output filename
+ * and every output file is written once, in type name order. Files are written atomically
+ * (temporary file and rename) and not touched at all, when their content did not change.
+ */
 public class Schemas {
     private static Logger logger = LoggerFactory.getLogger(Schemas.class);
 
@@ -17,32 +46,350 @@ public class Schemas {
     private String outputDirectory;
     private String outputFormat;
     private String template;
+    private int parallelism;
+    private final Set<String> outputFiles = ConcurrentHashMap.newKeySet();
+    private final Set<String> changedFiles = ConcurrentHashMap.newKeySet();
 
     public Schemas(final Map<String, SchemaFile.Parsed> schemas, final String outputDirectory, final String outputFormat, final String template) {
+        this(schemas, outputDirectory, outputFormat, template, 1);
+    }
+
+    /**
+     * @param parallelism number of output files written at the same time
+     */
+    public Schemas(final Map<String, SchemaFile.Parsed> schemas, final String outputDirectory, final String outputFormat, final String template, final int parallelism) {
         this.schemas = schemas;
         this.outputDirectory = outputDirectory;
         this.outputFormat = outputFormat;
         this.template = template;
+        this.parallelism = parallelism;
     }
 
     public void output() throws IOException {
-        for (Map.Entry<String, SchemaFile.Parsed> entry : schemas.entrySet()) {
+        output(schemas.keySet());
+    }
+
+    /**
+     * Writes only output files containing at least one of given types. Other types rendered into the same file are written as well.
+     */
+    public void output(final Collection<String> types) throws IOException {
+        output(types, Collections.emptyMap());
+    }
+
+    /**
+     * Writes only output files containing at least one of given types, like {@link #output(Collection)}.
+     * Output files of removed types are written again without them, or deleted when no other type is rendered into them.
+     *
+     * @param removed types written before, which are not composed any more
+     */
+    public void output(final Collection<String> types, final Map<String, SchemaFile.Parsed> removed) throws IOException {
+        TemplateName.Template compiled = TemplateName.compile(template);
+        Map<String, Map<String, SchemaFile.Parsed>> files = new TreeMap<>();
+        Set<String> touched = new HashSet<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : new TreeMap<>(schemas).entrySet()) {
+            String outputFilename = render(compiled, entry.getKey(), entry.getValue());
+            files.computeIfAbsent(outputFilename, k -> new TreeMap<>()).put(entry.getKey(), entry.getValue());
+            if (types.contains(entry.getKey())) {
+                touched.add(outputFilename);
+            }
+        }
+        Set<String> deleted = new TreeSet<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : new TreeMap<>(removed).entrySet()) {
+            String outputFilename = render(compiled, entry.getKey(), entry.getValue());
+            if (files.containsKey(outputFilename)) {
+                touched.add(outputFilename);
+            } else {
+                deleted.add(outputFilename);
+            }
+        }
+        files.keySet().retainAll(touched);
+
+        int written = write(files);
+        for (String outputFilename : deleted) {
+            if (Files.deleteIfExists(new File(outputDirectory, outputFilename).toPath())) {
+                changedFiles.add(outputFilename);
+                logger.debug("Output file: {} deleted, its types are not composed any more", outputFilename);
+            }
+        }
+        if (deleted.isEmpty()) {
+            logger.info("Output files: {} written, {} unchanged.", written, files.size() - written);
+        } else {
+            logger.info("Output files: {} written, {} unchanged, {} deleted.", written, files.size() - written, deleted.size());
+        }
+    }
+
+    /**
+     * @param files types by output filename
+     * @return number of files written, other files were unchanged
+     */
+    private int write(final Map<String, Map<String, SchemaFile.Parsed>> files) throws IOException {
+        AtomicInteger written = new AtomicInteger();
+        if (parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> files.entrySet().parallelStream().forEach(entry -> {
+                    try {
+                        if (write(entry.getKey(), entry.getValue())) {
+                            written.incrementAndGet();
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                })).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) ex.getCause()).getCause();
+                }
+                throw new IOException(ex.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            for (Map.Entry<String, Map<String, SchemaFile.Parsed>> entry : files.entrySet()) {
+                if (write(entry.getKey(), entry.getValue())) {
+                    written.incrementAndGet();
+                }
+            }
+        }
+        return written.get();
+    }
+
+    /**
+     * Starts streaming output, types are written while the composition continues.
+     * Output directory and template are taken from this instance, schemas given to constructor are not used.
+     */
+    public Streaming streaming() {
+        return streaming(type -> true);
+    }
+
+    /**
+     * @param types only types passing this filter are written, e.g. types owned by a {@link Shard}
+     */
+    public Streaming streaming(final Predicate<String> types) {
+        return new Streaming(this, types);
+    }
+
+    private String render(final TemplateName.Template compiled, final String type, final SchemaFile.Parsed parsed) {
+        Events.Span span = Events.begin(Events.Kind.RENDER);
+        String outputFilename = compiled.render(type, parsed);
+        Events.render(span, type, outputFilename);
+        logger.trace("Using output filename template: {} renders into output filename: {}", template, outputFilename);
+        return outputFilename;
+    }
+
+    /**
+     * @param types all types rendered into this file, sorted by type
+     * @return false, if the file already had the same content
+     */
+    private boolean write(final String outputFilename, final Map<String, SchemaFile.Parsed> types) throws IOException {
+        if ("pretty".equals(outputFormat) && types.size() > 1) {
+            logger.warn("Output file: {} is rendered for multiple types: {}, pretty format holds only one, using the last one.", outputFilename, types.keySet());
+        }
+        Events.Span span = Events.begin(Events.Kind.WRITE);
+        byte[] bytes = "bundle".equals(outputFormat) ? Bundle.write(types) : content(types).getBytes(StandardCharsets.UTF_8);
+
+        boolean written = replace(new File(outputDirectory, outputFilename).toPath(), bytes);
+        Events.write(span, outputFilename, bytes.length, written);
+        outputFiles.add(outputFilename);
+        if (written) {
+            changedFiles.add(outputFilename);
+        }
+        return written;
+    }
+
+    /**
+     * @return output files written by this instance, also the ones which already had the same content, relative to output directory
+     */
+    public Set<String> outputFiles() {
+        return new TreeSet<>(outputFiles);
+    }
+
+    /**
+     * @return output files this instance actually wrote or deleted, relative to output directory
+     */
+    public Set<String> changedFiles() {
+        return new TreeSet<>(changedFiles);
+    }
+
+    /**
+     * Writes the file atomically (temporary file and rename), unless it already has the same content.
+     *
+     * @return false, if the file already had the same content
+     */
+    public static boolean replace(final Path outputFile, final byte[] bytes) throws IOException {
+        if (Files.isRegularFile(outputFile) && Files.size(outputFile) == bytes.length && Arrays.equals(Files.readAllBytes(outputFile), bytes)) {
+            logger.trace("Output file: {} is unchanged", outputFile);
+            return false;
+        }
+        Files.createDirectories(outputFile.toAbsolutePath().getParent());
+        Path temporary = outputFile.resolveSibling("." + outputFile.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            try {
+                Files.move(temporary, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return true;
+    }
+
+    private String content(final Map<String, SchemaFile.Parsed> types) {
+        StringBuilder content = new StringBuilder();
+        if ("referenced".equals(outputFormat)) {
+            // types referred to come first, the file can be parsed line by line
+            for (String type : References.order(types)) {
+                if (content.length() > 0) {
+                    content.append('\n');
+                }
+                content.append(References.json(types.get(type).types().get(type), false));
+            }
+            return content.toString();
+        }
+        for (Map.Entry<String, SchemaFile.Parsed> entry : types.entrySet()) {
             logger.debug("Type: {} from file: {}", entry.getKey(), entry.getValue().name());
-            String type = entry.getKey();
-            SchemaFile.Parsed parsed = entry.getValue();
-
-            String outputFilename = new TemplateName(type, parsed, template).render();
-            logger.trace("Using output filename template: {} renders into output filename: {}", template, outputFilename);
-
-            File outputFile = new File(outputDirectory, outputFilename);
-            outputFile.getParentFile().mkdirs();
-            try (PrintStream os = new PrintStream(new FileOutputStream(outputFile, !"pretty".equals(outputFormat)))) {
-                if ("pretty".equals(outputFormat)) {
-                    os.print(parsed.types().get(type).toString(true));
-                } else if ("oneline".equals(outputFormat)) {
-                    os.print(parsed.types().get(type).toString(false));
+            Schema schema = entry.getValue().types().get(entry.getKey());
+            if ("pretty".equals(outputFormat)) {
+                content.setLength(0);
+                content.append(schema.toString(true));
+            } else {
+                if (content.length() > 0) {
+                    content.append('\n');
+                }
+                if ("oneline".equals(outputFormat)) {
+                    content.append(schema.toString(false));
                 } else {// canonical
-                    os.print(SchemaNormalization.toParsingForm(parsed.types().get(type)));
+                    content.append(SchemaNormalization.toParsingForm(schema));
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    /**
+     * Output stage running next to {@link Compose}. Parsed files are passed through a bounded queue
+     * to output threads, which render their types. When the filename template renders every type into its own file
+     * (see {@link TemplateName.Template#unique()}), the file is written right away. Otherwise a file may hold several types,
+     * all files are written in {@link #finish(Map)}, each one once, complete.
+     */
+    public static class Streaming implements Compose.Listener {
+        private static final int QUEUE_CAPACITY = 256;
+        private static final SchemaFile.Parsed END = new SchemaFile.ParsedSchemaFile("", Collections.emptySet(), null, Collections.emptyMap(), Collections.emptySet());
+
+        private final Schemas schemas;
+        private final Predicate<String> types;
+        private final TemplateName.Template compiled;
+        private final boolean streamed;
+        private final BlockingQueue<SchemaFile.Parsed> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Map<String, Map<String, SchemaFile.Parsed>> files = new HashMap<>();
+        private final Map<String, SchemaFile.Parsed> outputted = new HashMap<>();
+        private final Set<String> written = ConcurrentHashMap.newKeySet();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final List<Thread> threads = new ArrayList<>();
+
+        Streaming(final Schemas schemas, final Predicate<String> types) {
+            this.schemas = schemas;
+            this.types = types;
+            this.compiled = TemplateName.compile(schemas.template);
+            this.streamed = compiled.unique();
+            if (!streamed) {
+                logger.debug("Output filename template: {} may render multiple types into one file, files are written when composition finishes.", schemas.template);
+            }
+            for (int i = 0; i < Math.max(1, schemas.parallelism); i++) {
+                Thread thread = new Thread(this::run, "avro-compose-output-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        @Override
+        public void parsed(final SchemaFile.Parsed parsed) {
+            try {
+                queue.put(parsed);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Waits for all queued files to be rendered and written, then writes files holding multiple types. Types,
+         * which resolved to another file in the end (declared in multiple files), are written again.
+         *
+         * @param all all composed types to write
+         */
+        public void finish(final Map<String, SchemaFile.Parsed> all) throws IOException, InterruptedException {
+            stop();
+            if (failure.get() instanceof IOException) {
+                throw (IOException) failure.get();
+            } else if (failure.get() != null) {
+                throw new IOException(failure.get());
+            }
+            for (Map.Entry<String, SchemaFile.Parsed> entry : all.entrySet()) {
+                if (outputted.get(entry.getKey()) != entry.getValue()) {
+                    add(entry.getKey(), entry.getValue());
+                }
+            }
+            int count = streamed ? written.size() : schemas.write(new TreeMap<>(files));
+            logger.info("Output files: {} written, {} unchanged.", count, files.size() - count);
+        }
+
+        /**
+         * Stops output threads without waiting for queued files, e.g. when composition failed.
+         */
+        public void abort() throws InterruptedException {
+            queue.clear();
+            stop();
+        }
+
+        private void stop() throws InterruptedException {
+            for (int i = 0; i < threads.size(); i++) {
+                queue.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        private void run() {
+            try {
+                for (SchemaFile.Parsed parsed = queue.take(); parsed != END; parsed = queue.take()) {
+                    if (failure.get() != null) {
+                        continue;
+                    }
+                    try {
+                        for (String type : parsed.declarations()) {
+                            if (types.test(type)) {
+                                add(type, parsed);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void add(final String type, final SchemaFile.Parsed parsed) throws IOException {
+            String outputFilename = schemas.render(compiled, type, parsed);
+            Map<String, SchemaFile.Parsed> types;
+            synchronized (files) {
+                outputted.put(type, parsed);
+                types = files.computeIfAbsent(outputFilename, k -> new TreeMap<>());
+            }
+            synchronized (types) {
+                types.put(type, parsed);
+                // the template gives each type its own file, which holds just this type
+                if (streamed && schemas.write(outputFilename, new TreeMap<>(types))) {
+                    written.add(outputFilename);
                 }
             }
         }
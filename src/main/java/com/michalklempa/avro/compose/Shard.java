@@ -0,0 +1,59 @@
+package com.michalklempa.avro.compose;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * One of N shards of composed types, written as {@code i/N} with i from 1 to N. Every type belongs to exactly one shard,
+ * chosen by CRC-32 of its fullname, so the assignment is the same on every node and in every run, whatever the input order.
+ */
+public class Shard {
+    private final int index;
+    private final int count;
+
+    public Shard(final int index, final int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Shard must be i/N with 1 <= i <= N, got: " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    public static Shard parse(final String shard) {
+        String[] parts = shard.split("/", -1);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Shard must be i/N, got: " + shard);
+        }
+        try {
+            return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Shard must be i/N, got: " + shard);
+        }
+    }
+
+    public boolean owns(final String fullname) {
+        CRC32 crc = new CRC32();
+        crc.update(fullname.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue() % count == index - 1;
+    }
+
+    /**
+     * @return types this shard owns, sorted by fullname
+     */
+    public <T> Map<String, T> owned(final Map<String, T> types) {
+        Map<String, T> owned = new TreeMap<>();
+        for (Map.Entry<String, T> entry : types.entrySet()) {
+            if (owns(entry.getKey())) {
+                owned.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return owned;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,121 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads schema files by their names. Besides plain files, names may point into archives and classpath:
+ * <ul>
+ * <li>{@code lib/schemas.jar!/com/example/Type.avsc}: entry of .jar or .zip archive</li>
+ * <li>{@code classpath:com/example/Type.avsc}: resource of context class loader</li>
+ * </ul>
+ * Archives are never extracted, their entries are read when needed, see {@link Reader}. Nothing is kept between reads.
+ */
+public final class Sources {
+    public static final String CLASSPATH = "classpath:";
+    public static final String ARCHIVE_SEPARATOR = "!/";
+
+    private Sources() {
+    }
+
+    public static boolean isArchive(final Path path) {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString().toLowerCase();
+        return Files.isRegularFile(path) && (name.endsWith(".jar") || name.endsWith(".zip"));
+    }
+
+    public static FileSystem openArchive(final Path archive) throws IOException {
+        return FileSystems.newFileSystem(archive, (ClassLoader) null);
+    }
+
+    public static byte[] read(final String filename) throws IOException {
+        try (Reader reader = new Reader()) {
+            return reader.read(filename);
+        }
+    }
+
+    public static InputStream open(final String filename) throws IOException {
+        return new ByteArrayInputStream(read(filename));
+    }
+
+    /**
+     * @return absolute name, archive path is made absolute, classpath names are returned as they are
+     */
+    public static String absolute(final String filename) {
+        if (filename.startsWith(CLASSPATH)) {
+            return filename;
+        }
+        int separator = filename.indexOf(ARCHIVE_SEPARATOR);
+        if (separator >= 0) {
+            return new File(filename.substring(0, separator)).getAbsolutePath() + filename.substring(separator);
+        }
+        return new File(filename).getAbsolutePath();
+    }
+
+    /**
+     * Reads files of one run, archives are opened once on first read of their entry and closed with the reader.
+     * Safe for concurrent use.
+     */
+    public static class Reader implements Closeable {
+        private final Map<String, FileSystem> archives = new ConcurrentHashMap<>();
+
+        public byte[] read(final String filename) throws IOException {
+            if (filename.startsWith(CLASSPATH)) {
+                return readResource(filename.substring(CLASSPATH.length()));
+            }
+            int separator = filename.indexOf(ARCHIVE_SEPARATOR);
+            if (separator < 0) {
+                return Files.readAllBytes(Paths.get(filename));
+            }
+            String path = filename.substring(0, separator);
+            FileSystem archive = archives.get(path);
+            if (archive == null) {
+                synchronized (archives) {
+                    archive = archives.get(path);
+                    if (archive == null) {
+                        archive = openArchive(Paths.get(path));
+                        archives.put(path, archive);
+                    }
+                }
+            }
+            return Files.readAllBytes(archive.getPath(filename.substring(separator + 1)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (FileSystem archive : archives.values()) {
+                try {
+                    archive.close();
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+            archives.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static byte[] readResource(final String resource) throws IOException {
+        try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new FileNotFoundException(CLASSPATH + resource);
+            }
+            return IOUtils.toByteArray(is);
+        }
+    }
+}
@@ -2,64 +2,309 @@ package com.michalklempa.avro.compose;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.hubspot.jinjava.Jinjava;
+import com.hubspot.jinjava.interpret.Context;
+import com.hubspot.jinjava.interpret.FatalTemplateErrorsException;
+import com.hubspot.jinjava.interpret.JinjavaInterpreter;
+import com.hubspot.jinjava.interpret.TemplateError;
+import com.hubspot.jinjava.tree.Node;
 import org.apache.avro.Schema;
 
-import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Output filename of a composed type, rendered from Jinja template.
+ * Templates are compiled once per run and shared between threads. Templates consisting only of text and
+ * variables (optionally piped through replace filter), such as {@code {{schema.fullname}}.avsc}, are rendered directly,
+ * everything else goes through single shared {@link Jinjava} instance with template parsed once.
+ */
 public class TemplateName {
-    private Jinjava jinjava;
+    private static final Jinjava JINJAVA = new Jinjava();
+    private static final Map<String, Template> TEMPLATES = new ConcurrentHashMap<>();
+
     private String type;
     private SchemaFile.Parsed parsed;
-    private String template;
+    private Template template;
     private String rendered;
 
     public TemplateName(String type, SchemaFile.Parsed parsed, String template) {
         this.type = type;
         this.parsed = parsed;
-        this.template = template;
+        this.template = compile(template);
         this.rendered = null;
     }
 
     public String render() {
         if (rendered == null) {
-            jinjava = new Jinjava();
+            rendered = template.render(type, parsed);
+        }
+        return rendered;
+    }
+
+    public static Template compile(final String template) {
+        return TEMPLATES.computeIfAbsent(template, t -> {
+            Template direct = DirectTemplate.compile(t);
+            return direct != null ? direct : new JinjaTemplate(t);
+        });
+    }
+
+    public interface Template {
+        String render(String type, SchemaFile.Parsed parsed);
+
+        /**
+         * @return true when two different types are always rendered into two different names, e.g. {@code {{schema.fullname}}.avsc}
+         */
+        default boolean unique() {
+            return false;
+        }
+    }
 
+    private static Map<String, String> props(final Schema schema) {
+        Map<String, Object> allProps = schema.getObjectProps();
+        Map<String, String> contextProps = new HashMap<>();
+        for (Map.Entry<String, Object> entry : allProps.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                contextProps.put(entry.getKey(), (String) entry.getValue());
+            } else if (entry.getValue() instanceof JsonNode) {
+                JsonNode value = (JsonNode) entry.getValue();
+                if (value != null && value.isTextual()) {
+                    contextProps.put(entry.getKey(), value.textValue());
+                }
+            } else {
+                throw new RuntimeException();
+            }
+        }
+        return contextProps;
+    }
+
+    static class JinjaTemplate implements Template {
+        private final String template;
+        private final Node tree;
+
+        JinjaTemplate(final String template) {
+            this.template = template;
+            JinjavaInterpreter interpreter = JINJAVA.newInterpreter();
+            JinjavaInterpreter.pushCurrent(interpreter);
+            try {
+                this.tree = interpreter.parse(template);
+            } finally {
+                JinjavaInterpreter.popCurrent();
+            }
+            check(interpreter);
+        }
+
+        @Override
+        public String render(final String type, final SchemaFile.Parsed parsed) {
             Map<String, String> contextSource = new HashMap<>();
             contextSource.put("basename", parsed.name());
             contextSource.put("full", parsed.filename());
-            contextSource.put("absolute", new File(parsed.filename()).getAbsolutePath());
+            contextSource.put("absolute", Sources.absolute(parsed.filename()));
 
             Map<String, Object> context = new HashMap<>();
             context.put("source", contextSource);
 
             Schema schema = parsed.types().get(type);
-            Map<String, Object> allProps = schema.getObjectProps();
-            Map<String, String> contextProps = new HashMap<>();
-            for (Map.Entry<String, Object> entry : allProps.entrySet()) {
-                if (entry.getValue() instanceof String) {
-                    contextProps.put(entry.getKey(), (String) entry.getValue());
-                } else if (entry.getValue() instanceof JsonNode) {
-                    JsonNode value = (JsonNode) entry.getValue();
-                    if (value != null && value.isTextual()) {
-                        contextProps.put(entry.getKey(), value.textValue());
-                    }
-                } else {
-                    throw new RuntimeException();
-                }
-            }
-
             Map<String, Object> contextSchema = new HashMap<>();
             contextSchema.put("name", schema.getName());
             contextSchema.put("fullname", schema.getFullName());
             contextSchema.put("namespace", schema.getNamespace());
             contextSchema.put("doc", schema.getDoc());
-            contextSchema.put("props", contextProps);
+            contextSchema.put("props", props(schema));
 
             context.put("schema", contextSchema);
-            rendered = jinjava.render(template, context);
+
+            JinjavaInterpreter interpreter = new JinjavaInterpreter(JINJAVA, new Context(JINJAVA.getGlobalContext(), context), JINJAVA.getGlobalConfig());
+            JinjavaInterpreter.pushCurrent(interpreter);
+            try {
+                String rendered = interpreter.render(tree);
+                check(interpreter);
+                return rendered;
+            } finally {
+                JinjavaInterpreter.popCurrent();
+            }
+        }
+
+        private void check(final JinjavaInterpreter interpreter) {
+            List<TemplateError> fatal = new ArrayList<>();
+            for (TemplateError error : interpreter.getErrors()) {
+                if (error.getSeverity() == TemplateError.ErrorType.FATAL) {
+                    fatal.add(error);
+                }
+            }
+            if (!fatal.isEmpty()) {
+                throw new FatalTemplateErrorsException(template, fatal);
+            }
+        }
+    }
+
+    /**
+     * Template of literal text and {@code {{ variable | replace('a', 'b') }}} expressions, rendered without interpreter.
+     */
+    static class DirectTemplate implements Template {
+        private static final String STRING = "(?:'([^'\\\\]*)'|\"([^\"\\\\]*)\")";
+        private static final Pattern EXPRESSION = Pattern.compile("\\{\\{\\s*([a-z]+(?:\\.[A-Za-z_][A-Za-z0-9_]*)+)\\s*((?:\\|\\s*replace\\s*\\(\\s*" + STRING + "\\s*,\\s*" + STRING + "\\s*\\)\\s*)*)}}");
+        private static final Pattern REPLACE = Pattern.compile("replace\\s*\\(\\s*" + STRING + "\\s*,\\s*" + STRING + "\\s*\\)");
+
+        private final List<Part> parts;
+        private final boolean unique;
+
+        DirectTemplate(final List<Part> parts) {
+            this.parts = parts;
+            this.unique = unique(parts);
+        }
+
+        /**
+         * Text around single fullname, or namespace and name separated by '.', or by '/' with dots of namespace replaced by '/'.
+         */
+        private static boolean unique(final List<Part> parts) {
+            List<Integer> variables = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                if (parts.get(i).variable != null) {
+                    variables.add(i);
+                }
+            }
+            if (variables.size() == 1) {
+                Part fullname = parts.get(variables.get(0));
+                return fullname.variable == Variable.SCHEMA_FULLNAME && fullname.replacements.isEmpty();
+            }
+            if (variables.size() != 2 || variables.get(1) != variables.get(0) + 2) {
+                return false;
+            }
+            Part namespace = parts.get(variables.get(0));
+            String separator = parts.get(variables.get(0) + 1).text;
+            Part name = parts.get(variables.get(1));
+            if (namespace.variable != Variable.SCHEMA_NAMESPACE || name.variable != Variable.SCHEMA_NAME || !name.replacements.isEmpty()) {
+                return false;
+            }
+            if (namespace.replacements.isEmpty()) {
+                return ".".equals(separator);
+            }
+            return "/".equals(separator) && namespace.replacements.size() == 1
+                    && ".".equals(namespace.replacements.get(0)[0]) && "/".equals(namespace.replacements.get(0)[1]);
+        }
+
+        @Override
+        public boolean unique() {
+            return unique;
+        }
+
+        /**
+         * @return direct template, or null if the template uses anything else than plain variables and replace filter
+         */
+        static DirectTemplate compile(final String template) {
+            List<Part> parts = new ArrayList<>();
+            Matcher matcher = EXPRESSION.matcher(template);
+            int position = 0;
+            while (matcher.find()) {
+                if (!literal(template.substring(position, matcher.start()), parts)) {
+                    return null;
+                }
+                Variable variable = Variable.of(matcher.group(1));
+                if (variable == null) {
+                    return null;
+                }
+                List<String[]> replacements = new ArrayList<>();
+                Matcher replace = REPLACE.matcher(matcher.group(2));
+                while (replace.find()) {
+                    replacements.add(new String[]{
+                            replace.group(1) != null ? replace.group(1) : replace.group(2),
+                            replace.group(3) != null ? replace.group(3) : replace.group(4)});
+                }
+                parts.add(new Part(null, variable, matcher.group(1), replacements));
+                position = matcher.end();
+            }
+            if (!literal(template.substring(position), parts)) {
+                return null;
+            }
+            return new DirectTemplate(parts);
+        }
+
+        private static boolean literal(final String text, final List<Part> parts) {
+            if (text.contains("{{") || text.contains("{%") || text.contains("{#")) {
+                return false;
+            }
+            if (!text.isEmpty()) {
+                parts.add(new Part(text, null, null, null));
+            }
+            return true;
+        }
+
+        @Override
+        public String render(final String type, final SchemaFile.Parsed parsed) {
+            Schema schema = parsed.types().get(type);
+            StringBuilder rendered = new StringBuilder();
+            for (Part part : parts) {
+                if (part.text != null) {
+                    rendered.append(part.text);
+                    continue;
+                }
+                String value = part.variable.value(part.path, schema, parsed);
+                if (value == null) {
+                    continue;
+                }
+                for (String[] replacement : part.replacements) {
+                    value = value.replace(replacement[0], replacement[1]);
+                }
+                rendered.append(value);
+            }
+            return rendered.toString();
+        }
+
+        private enum Variable {
+            SCHEMA_NAME, SCHEMA_FULLNAME, SCHEMA_NAMESPACE, SCHEMA_DOC, SCHEMA_PROPS, SOURCE_BASENAME, SOURCE_FULL, SOURCE_ABSOLUTE;
+
+            static Variable of(final String path) {
+                String[] segments = path.split("\\.");
+                if (segments.length == 3 && "schema".equals(segments[0]) && "props".equals(segments[1])) {
+                    return SCHEMA_PROPS;
+                }
+                for (Variable variable : values()) {
+                    if (variable != SCHEMA_PROPS && variable.name().toLowerCase().replace('_', '.').equals(path)) {
+                        return variable;
+                    }
+                }
+                return null;
+            }
+
+            String value(final String path, final Schema schema, final SchemaFile.Parsed parsed) {
+                switch (this) {
+                    case SCHEMA_NAME:
+                        return schema.getName();
+                    case SCHEMA_FULLNAME:
+                        return schema.getFullName();
+                    case SCHEMA_NAMESPACE:
+                        return schema.getNamespace();
+                    case SCHEMA_DOC:
+                        return schema.getDoc();
+                    case SCHEMA_PROPS:
+                        return props(schema).get(path.substring(path.lastIndexOf('.') + 1));
+                    case SOURCE_BASENAME:
+                        return parsed.name();
+                    case SOURCE_FULL:
+                        return parsed.filename();
+                    default:
+                        return Sources.absolute(parsed.filename());
+                }
+            }
+        }
+
+        private static class Part {
+            private final String text;
+            private final Variable variable;
+            private final String path;
+            private final List<String[]> replacements;
+
+            Part(final String text, final Variable variable, final String path, final List<String[]> replacements) {
+                this.text = text;
+                this.variable = variable;
+                this.path = path;
+                this.replacements = replacements;
+            }
         }
-        return rendered;
     }
 }
@@ -0,0 +1,267 @@
+package com.michalklempa.avro.compose;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident watch mode. Keeps composed files in memory together with reverse dependency edges
+ * and on every change of input files re-parses only changed files and files (transitively) depending on them.
+ * All other files are handed to {@link Compose} as already composed base layer.
+ */
+public class Watch {
+    private static final long DEBOUNCE_MILLIS = 100;
+    private static Logger logger = LoggerFactory.getLogger(Watch.class);
+
+    private final List<String> inputs;
+    private final Discovery discovery;
+    private final Set<Path> ignored = new HashSet<>();
+    private final int parallelism;
+    private final Listener listener;
+    private final Map<String, SchemaFile.Parsed> files = new LinkedHashMap<>();
+    private final Map<String, SchemaFile.Parsed> schemas = new HashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Path> roots = new HashMap<>();
+
+    public interface Listener {
+        /**
+         * @param schemas all composed types
+         * @param changed types declared in files parsed in this round
+         * @param removed types composed in the previous round, which are not composed any more, e.g. their file was deleted
+         */
+        void composed(Map<String, SchemaFile.Parsed> schemas, Map<String, SchemaFile.Parsed> changed, Map<String, SchemaFile.Parsed> removed) throws Exception;
+    }
+
+    /**
+     * @param inputs    files and directories given on command line
+     * @param discovery lists schema files to compose from inputs, directories it excludes are not watched
+     * @param ignored   directories not watched, e.g. output directory, null elements are skipped
+     * @param schemas   result of the initial composition
+     */
+    public Watch(final List<String> inputs, final Discovery discovery, final Collection<String> ignored, final int parallelism, final Map<String, SchemaFile.Parsed> schemas, final Listener listener) {
+        this.inputs = inputs;
+        this.discovery = discovery;
+        for (String directory : ignored) {
+            if (directory != null) {
+                this.ignored.add(normalize(Paths.get(directory)));
+            }
+        }
+        this.parallelism = parallelism;
+        this.listener = listener;
+        update(schemas);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (String input : inputs) {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    registerAll(watchService, path, path);
+                } else if (path.toAbsolutePath().getParent() != null) {
+                    register(watchService, path.toAbsolutePath().getParent());
+                }
+            }
+            logger.info("Watching {} input files for changes.", files.size());
+
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<String> changed = new LinkedHashSet<>();
+                while (key != null) {
+                    changed.addAll(changes(watchService, key));
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    recompose(changed);
+                }
+            }
+        }
+    }
+
+    private Set<String> changes(final WatchService watchService, final WatchKey key) throws IOException {
+        Set<String> changed = new LinkedHashSet<>();
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                changed.addAll(files.keySet());
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path) && roots.containsKey(directory)) {
+                registerAll(watchService, roots.get(directory), path);
+            }
+            changed.add(normalize(path.toString()));
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void recompose(final Set<String> changed) {
+        Map<String, String> discovered = new LinkedHashMap<>();
+        try {
+            for (String filename : discovery.files(inputs)) {
+                discovered.put(normalize(filename), filename);
+            }
+        } catch (IOException ex) {
+            logger.error("Error listing input files, keeping previous result, waiting for next change.", ex);
+            return;
+        }
+        Set<String> known = new LinkedHashSet<>(files.keySet());
+        known.addAll(discovered.keySet());
+        Set<String> touched = touched(changed, known);
+        if (touched.isEmpty()) {
+            return;
+        }
+
+        Set<String> affected = dependents(touched);
+        Set<SchemaFile.Parsed> base = new HashSet<>();
+        for (Map.Entry<String, SchemaFile.Parsed> entry : files.entrySet()) {
+            if (!affected.contains(entry.getKey())) {
+                base.add(entry.getValue());
+            }
+        }
+        List<String> inputFiles = new ArrayList<>();
+        for (Map.Entry<String, String> entry : discovered.entrySet()) {
+            if (affected.contains(entry.getKey()) || !files.containsKey(entry.getKey())) {
+                inputFiles.add(entry.getValue());
+            }
+        }
+        logger.info("Files changed: {}, composing {} files.", touched, inputFiles.size());
+
+        long start = System.nanoTime();
+        try {
+            Map<String, SchemaFile.Parsed> baseTypes = Compose.ParsedIndex.of(base);
+            Map<String, SchemaFile.Parsed> recomposed = Compose.builder(inputFiles).parallelism(parallelism).base(baseTypes).build().compose();
+            Map<String, SchemaFile.Parsed> composed = new TreeMap<>(baseTypes);
+            composed.putAll(recomposed);
+            Map<String, SchemaFile.Parsed> removed = new TreeMap<>(schemas);
+            removed.keySet().removeAll(composed.keySet());
+            update(composed);
+            listener.composed(composed, recomposed, removed);
+            logger.info("Composed {} types in {} ms.", recomposed.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception ex) {
+            logger.error("Error composing changed files, keeping previous result, waiting for next change.", ex);
+        }
+    }
+
+    /**
+     * @param changed paths reported by the watch service
+     * @param known   input files composed before or discovered now
+     * @return input files changed: the path itself, or every entry of a changed archive, the watch service reports only the archive
+     */
+    private static Set<String> touched(final Set<String> changed, final Set<String> known) {
+        Set<String> touched = new LinkedHashSet<>();
+        for (String filename : changed) {
+            if (known.contains(filename)) {
+                touched.add(filename);
+            }
+            String entries = filename + Sources.ARCHIVE_SEPARATOR;
+            for (String input : known) {
+                if (input.startsWith(entries)) {
+                    touched.add(input);
+                }
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * @return given files and all files depending on them, following reverse edges of {@link SchemaFile.Attempt#dependencies()}
+     */
+    private Set<String> dependents(final Set<String> filenames) {
+        Map<String, Set<String>> reverse = new HashMap<>();
+        for (SchemaFile.Parsed parsed : files.values()) {
+            for (SchemaFile.Parsed dependency : parsed.dependencies()) {
+                reverse.computeIfAbsent(normalize(dependency.filename()), k -> new HashSet<>()).add(normalize(parsed.filename()));
+            }
+        }
+        Set<String> affected = new LinkedHashSet<>();
+        List<String> queue = new ArrayList<>(filenames);
+        while (!queue.isEmpty()) {
+            String filename = queue.remove(queue.size() - 1);
+            if (affected.add(filename)) {
+                queue.addAll(reverse.getOrDefault(filename, new HashSet<>()));
+            }
+        }
+        return affected;
+    }
+
+    private void update(final Map<String, SchemaFile.Parsed> schemas) {
+        this.schemas.clear();
+        this.schemas.putAll(schemas);
+        files.clear();
+        for (SchemaFile.Parsed parsed : schemas.values()) {
+            files.put(normalize(parsed.filename()), parsed);
+        }
+    }
+
+    private void registerAll(final WatchService watchService, final Path root, final Path start) throws IOException {
+        for (Path directory : directories(root, start)) {
+            register(watchService, directory);
+            roots.put(directory, root);
+        }
+    }
+
+    /**
+     * @param root  input directory
+     * @param start directory under root to start from
+     * @return directories to watch: the same ones {@link Discovery} walks, except for ignored ones
+     */
+    List<Path> directories(final Path root, final Path start) throws IOException {
+        List<Path> watched = new ArrayList<>();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (discovery.excluded(root, dir) || ignored.contains(normalize(dir))) {
+                    logger.trace("Not watching directory: {}", dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watched.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException ex) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return watched;
+    }
+
+    private void register(final WatchService watchService, final Path directory) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+        logger.trace("Watching directory: {}", directory);
+    }
+
+    private static String normalize(final String filename) {
+        return new File(filename).toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private static Path normalize(final Path directory) {
+        return directory.toAbsolutePath().normalize();
+    }
+}
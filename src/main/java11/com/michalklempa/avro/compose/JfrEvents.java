@@ -0,0 +1,194 @@
+package com.michalklempa.avro.compose;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events, loaded reflectively by {@link Events} when the running JVM has JFR. Compiled for Java 11
+ * (jdk.jfr is not part of the Java 8 platform API). Event is created only while JFR is running, begun and ended around
+ * the measured operation, its fields are set only when it is going to be committed.
+ */
+final class JfrEvents implements Events.Recorder {
+    private static final String CATEGORY = "Avro Compose";
+
+    JfrEvents() {
+    }
+
+    @Override
+    public Object begin(final Events.Kind kind) {
+        if (!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        Event event = create(kind);
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    private static Event create(final Events.Kind kind) {
+        switch (kind) {
+            case READ:
+                return new FileRead();
+            case ATTEMPT:
+                return new ParseAttempt();
+            case BLOCKED:
+                return new Blocked();
+            case UNBLOCKED:
+                return new Unblocked();
+            case RENDER:
+                return new TemplateRender();
+            case WRITE:
+                return new OutputWrite();
+            default:
+                throw new IllegalArgumentException("Unknown event: " + kind);
+        }
+    }
+
+    @Override
+    public boolean end(final Object event) {
+        ((Event) event).end();
+        return ((Event) event).shouldCommit();
+    }
+
+    @Override
+    public void read(final Object event, final String filename, final int bytes) {
+        FileRead read = (FileRead) event;
+        read.filename = filename;
+        read.bytes = bytes;
+        read.commit();
+    }
+
+    @Override
+    public void attempt(final Object event, final String filename, final int attempt, final int dependencyTypes, final String cause) {
+        ParseAttempt parseAttempt = (ParseAttempt) event;
+        parseAttempt.filename = filename;
+        parseAttempt.attempt = attempt;
+        parseAttempt.dependencyTypes = dependencyTypes;
+        parseAttempt.success = cause == null;
+        parseAttempt.cause = cause;
+        parseAttempt.commit();
+    }
+
+    @Override
+    public void blocked(final Object event, final String filename, final String types) {
+        Blocked blocked = (Blocked) event;
+        blocked.filename = filename;
+        blocked.types = types;
+        blocked.commit();
+    }
+
+    @Override
+    public void unblocked(final Object event, final String filename, final String by) {
+        Unblocked unblocked = (Unblocked) event;
+        unblocked.filename = filename;
+        unblocked.by = by;
+        unblocked.commit();
+    }
+
+    @Override
+    public void render(final Object event, final String type, final String outputFilename) {
+        TemplateRender render = (TemplateRender) event;
+        render.type = type;
+        render.outputFilename = outputFilename;
+        render.commit();
+    }
+
+    @Override
+    public void write(final Object event, final String outputFilename, final int bytes, final boolean written) {
+        OutputWrite write = (OutputWrite) event;
+        write.outputFilename = outputFilename;
+        write.bytes = bytes;
+        write.written = written;
+        write.commit();
+    }
+
+    @Name("com.michalklempa.avro.compose.FileRead")
+    @Label("File Read")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class FileRead extends Event {
+        @Label("File")
+        String filename;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.michalklempa.avro.compose.ParseAttempt")
+    @Label("Parse Attempt")
+    @Description("Avro parser run on an input file, failed attempts are retried once the missing types are parsed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ParseAttempt extends Event {
+        @Label("File")
+        String filename;
+        @Label("Attempt")
+        int attempt;
+        @Label("Dependency Types")
+        @Description("Types of dependencies given to the parser")
+        int dependencyTypes;
+        @Label("Success")
+        boolean success;
+        @Label("Cause")
+        @Description("Parser error of failed attempt")
+        String cause;
+    }
+
+    @Name("com.michalklempa.avro.compose.Blocked")
+    @Label("File Blocked")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Blocked extends Event {
+        @Label("File")
+        String filename;
+        @Label("Missing Types")
+        String types;
+    }
+
+    @Name("com.michalklempa.avro.compose.Unblocked")
+    @Label("File Unblocked")
+    @Description("Duration is the time the file was blocked")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Unblocked extends Event {
+        @Label("File")
+        String filename;
+        @Label("Unblocked By")
+        @Description("File declaring the last missing type")
+        String by;
+    }
+
+    @Name("com.michalklempa.avro.compose.TemplateRender")
+    @Label("Template Render")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class TemplateRender extends Event {
+        @Label("Type")
+        String type;
+        @Label("Output File")
+        String outputFilename;
+    }
+
+    @Name("com.michalklempa.avro.compose.OutputWrite")
+    @Label("Output Write")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class OutputWrite extends Event {
+        @Label("Output File")
+        String outputFilename;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Written")
+        @Description("False when the file already had the same content")
+        boolean written;
+    }
+}
@@ -0,0 +1,66 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockedRegistryTest {
+
+    private static SchemaFile.Parsed declaring(final String filename, final String... types) {
+        return new SchemaFile.ParsedSchemaFile(filename, Collections.emptySet(), null, Collections.emptyMap(), new HashSet<>(Arrays.asList(types)));
+    }
+
+    @Test
+    public void fileIsUnblockedOnlyAfterAllRequiredTypes() {
+        Compose.BlockedRegistry registry = new Compose.BlockedRegistry();
+        registry.block(new HashSet<>(Arrays.asList("ns.A", "ns.B")), null, SchemaFile.Factory.attempt("c.avsc"));
+        SchemaFile.Parsed a = declaring("a.avsc", "ns.A");
+        SchemaFile.Parsed b = declaring("b.avsc", "ns.B", "ns.Other");
+
+        assertTrue(registry.unblock(a).isEmpty());
+        assertFalse(registry.isEmpty());
+        assertEquals(Collections.singleton("c.avsc"), filenames(registry.all()));
+
+        List<SchemaFile.Attempt> unblocked = registry.unblock(b);
+        assertEquals(1, unblocked.size());
+        assertEquals("c.avsc", unblocked.get(0).filename());
+        assertEquals(new HashSet<>(Arrays.asList(a, b)), unblocked.get(0).dependencies());
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void oneTypeUnblocksAllWaitingFiles() {
+        Compose.BlockedRegistry registry = new Compose.BlockedRegistry();
+        registry.block(Collections.singleton("ns.A"), null, SchemaFile.Factory.attempt("b.avsc"));
+        registry.block(Collections.singleton("ns.A"), null, SchemaFile.Factory.attempt("c.avsc"));
+
+        assertEquals(2, registry.unblock(declaring("a.avsc", "ns.A")).size());
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void fileBlockedOnNothingStaysBlocked() {
+        Compose.BlockedRegistry registry = new Compose.BlockedRegistry();
+        Exception failure = new Exception("broken");
+        registry.block(Collections.emptySet(), failure, SchemaFile.Factory.attempt("broken.avsc"));
+
+        assertTrue(registry.unblock(declaring("a.avsc", "ns.A")).isEmpty());
+        assertEquals(1, registry.all().size());
+        assertEquals(failure, registry.all().get(0).exception());
+    }
+
+    private static HashSet<String> filenames(final List<SchemaFile.Blocked> blocked) {
+        HashSet<String> filenames = new HashSet<>();
+        for (SchemaFile.Blocked file : blocked) {
+            filenames.add(file.filename());
+        }
+        return filenames;
+    }
+}
@@ -0,0 +1,98 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BundleTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, SchemaFile.Parsed> compose() throws Exception {
+        return new Compose(Arrays.asList(
+                ComposeTest.write(folder.getRoot(), "b.avsc", ComposeTest.record("ns.B", "\"ns.A\"", "{\"type\": \"enum\", \"name\": \"ns.E\", \"symbols\": [\"X\"]}")),
+                ComposeTest.write(folder.getRoot(), "a.avsc", ComposeTest.record("ns.A", "\"string\"")))).compose();
+    }
+
+    private Path write(final byte[] bytes) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("schemas.bundle");
+        Files.write(path, bytes);
+        return path;
+    }
+
+    @Test
+    public void typesReadBackAsComposed() throws Exception {
+        Map<String, SchemaFile.Parsed> composed = compose();
+
+        try (Bundle bundle = Bundle.open(write(Bundle.write(composed)))) {
+            assertEquals(new TreeSet<>(composed.keySet()), bundle.types());
+            for (String type : composed.keySet()) {
+                assertTrue(bundle.contains(type));
+                assertEquals(type, composed.get(type).types().get(type), bundle.schema(type));
+                assertEquals(type, SchemaNormalization.parsingFingerprint64(composed.get(type).types().get(type)), bundle.fingerprint(type));
+            }
+            assertSame(bundle.schema("ns.B"), bundle.schema("ns.B"));
+            assertFalse(bundle.contains("ns.Unknown"));
+        }
+    }
+
+    @Test
+    public void eachTypeParsesOnItsOwn() throws Exception {
+        Map<String, SchemaFile.Parsed> composed = compose();
+        try (Bundle bundle = Bundle.open(write(Bundle.write(composed)))) {
+            for (String type : bundle.types()) {
+                assertEquals(type, composed.get(type).types().get(type), new Schema.Parser().parse(bundle.json(type)));
+            }
+            assertEquals(composed.get("ns.A").types().get("ns.A").toString(false), bundle.json("ns.A"));
+        }
+    }
+
+    @Test
+    public void unknownTypeFails() throws Exception {
+        try (Bundle bundle = Bundle.open(write(Bundle.write(compose())))) {
+            bundle.schema("ns.Unknown");
+            fail("Expected unknown type to fail");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Type: ns.Unknown is not in the bundle", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws Exception {
+        Path path = write("{\"type\": \"string\"}".getBytes(StandardCharsets.UTF_8));
+        try {
+            Bundle.open(path).close();
+            fail("Expected other file to be rejected");
+        } catch (IOException ex) {
+            assertEquals("Not a bundle: " + path, ex.getMessage());
+        }
+    }
+
+    @Test
+    public void truncatedBundleIsRejected() throws Exception {
+        byte[] bytes = Bundle.write(compose());
+        Path path = write(Arrays.copyOf(bytes, bytes.length - 1));
+        try {
+            Bundle.open(path).close();
+            fail("Expected truncated bundle to be rejected");
+        } catch (IOException ex) {
+            assertEquals("Bundle: " + path + " is truncated", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String cacheDirectory;
+    private String a;
+    private String b;
+    private String c;
+
+    private List<String> files() throws Exception {
+        cacheDirectory = folder.newFolder("cache").getPath();
+        a = ComposeTest.write(folder.getRoot(), "a.avsc", ComposeTest.record("ns.A", "{\"type\": \"enum\", \"name\": \"ns.E\", \"symbols\": [\"X\"]}"));
+        b = ComposeTest.write(folder.getRoot(), "b.avsc", ComposeTest.record("ns.B", "\"ns.A\""));
+        c = ComposeTest.write(folder.getRoot(), "c.avsc", ComposeTest.record("ns.C", "\"ns.E\""));
+        return Arrays.asList(c, b, a);
+    }
+
+    private Compose compose(final List<String> files) throws Exception {
+        return Compose.builder(files).cache(Cache.load(cacheDirectory)).build();
+    }
+
+    @Test
+    public void unchangedFilesAreRestoredWithoutReading() throws Exception {
+        List<String> files = files();
+        Map<String, SchemaFile.Parsed> first = compose(files).compose();
+
+        // same size and modification time, the file is not read again
+        File fileA = new File(a);
+        long modified = fileA.lastModified();
+        byte[] garbage = new byte[(int) fileA.length()];
+        Arrays.fill(garbage, (byte) ' ');
+        Files.write(fileA.toPath(), garbage);
+        assertTrue(fileA.setLastModified(modified));
+
+        Compose compose = compose(files);
+        Map<String, SchemaFile.Parsed> second = compose.compose();
+        assertEquals(0, compose.attempts());
+        assertEquals(first.keySet(), second.keySet());
+        for (String type : first.keySet()) {
+            assertTrue(second.get(type) instanceof SchemaFile.CachedSchemaFile);
+            assertEquals(first.get(type).types().get(type), second.get(type).types().get(type));
+        }
+        assertEquals(Arrays.asList("ns.A", "ns.E"), Arrays.asList(second.get("ns.A").types().keySet().toArray()));
+    }
+
+    @Test
+    public void changedFileAndItsDependentsAreParsedAgain() throws Exception {
+        List<String> files = files();
+        compose(files).compose();
+
+        Files.write(new File(a).toPath(), ComposeTest.record("ns.A", "{\"type\": \"enum\", \"name\": \"ns.E\", \"symbols\": [\"X\", \"Y\"]}").getBytes(StandardCharsets.UTF_8));
+        Compose compose = compose(files);
+        Map<String, SchemaFile.Parsed> schemas = compose.compose();
+        assertEquals(3, compose.attempts());
+        assertFalse(schemas.get("ns.C") instanceof SchemaFile.CachedSchemaFile);
+        assertEquals(Arrays.asList("X", "Y"), schemas.get("ns.C").types().get("ns.C").getField("f0").schema().getEnumSymbols());
+    }
+
+    @Test
+    public void touchedFileWithSameContentStaysClean() throws Exception {
+        List<String> files = files();
+        compose(files).compose();
+
+        assertTrue(new File(b).setLastModified(new File(b).lastModified() - 10000));
+        Compose compose = compose(files);
+        compose.compose();
+        assertEquals(0, compose.attempts());
+    }
+
+    @Test
+    public void restoredTypesAreCountedInReport() throws Exception {
+        List<String> files = files();
+        compose(files).compose();
+
+        Report report = new Report();
+        Events.report(report);
+        try {
+            Map<String, SchemaFile.Parsed> schemas = compose(files).compose();
+            schemas.get("ns.B").types();
+        } finally {
+            Events.report(null);
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        report.output(os);
+        JsonNode json = new ObjectMapper().readTree(os.toByteArray());
+        // ns.B and its dependency ns.A are parsed from the cache, nothing is read
+        assertEquals(2, json.path("attempts").asInt());
+        assertEquals(0, json.path("bytesRead").asInt());
+    }
+}
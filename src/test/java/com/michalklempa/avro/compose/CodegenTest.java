@@ -0,0 +1,141 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.generic.GenericData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CodegenTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, SchemaFile.Parsed> compose(final String aFieldType) throws Exception {
+        File input = new File(folder.getRoot(), "input");
+        return new Compose(Arrays.asList(
+                ComposeTest.write(input, "a.avsc", ComposeTest.record("ns.A", aFieldType)),
+                ComposeTest.write(input, "b.avsc", ComposeTest.record("ns.B", "\"ns.A\"", "{\"type\": \"enum\", \"name\": \"ns.E\", \"symbols\": [\"X\"]}")),
+                ComposeTest.write(input, "c.avsc", ComposeTest.record("other.C", "\"int\"")))).compose();
+    }
+
+    private String cache() {
+        return new File(folder.getRoot(), "cache").getPath();
+    }
+
+    private static String path(final String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+    private static String source(final File output, final String path) throws Exception {
+        return new String(Files.readAllBytes(new File(output, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void everyTypeGetsItsOwnClass() throws Exception {
+        File output = folder.newFolder("java");
+        new Codegen(compose("\"string\""), output.getPath(), cache(), GenericData.StringType.String, 2, true).output();
+
+        assertTrue(source(output, "ns/A.java").contains("public class A extends org.apache.avro.specific.SpecificRecordBase"));
+        assertTrue(source(output, "ns/A.java").contains("private java.lang.String f0;"));
+        assertTrue(source(output, "ns/B.java").contains("private ns.A f0;"));
+        assertTrue(source(output, "ns/E.java").contains("public enum E"));
+        assertTrue(source(output, "other/C.java").contains("public class C"));
+        assertFalse(new File(output, "AvroComposeCodegenBatch.java").exists());
+    }
+
+    @Test
+    public void unchangedTypesAreNotGeneratedAgain() throws Exception {
+        File output = folder.newFolder("java");
+        new Codegen(compose("\"string\""), output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+        Files.write(new File(output, "ns/B.java").toPath(), "edited".getBytes(StandardCharsets.UTF_8));
+
+        Codegen codegen = new Codegen(compose("\"long\""), output.getPath(), cache(), GenericData.StringType.String, 1, true);
+        codegen.output();
+        // same fingerprint, left as it is
+        assertEquals(new TreeSet<>(Arrays.asList(path("ns/A.java"), path("ns/B.java"))), codegen.changedSources());
+        assertEquals(4, codegen.sources().size());
+        // ns.B holds the changed ns.A
+        assertTrue(source(output, "ns/B.java").contains("private ns.A f0;"));
+        assertTrue(source(output, "ns/A.java").contains("private long f0;"));
+    }
+
+    @Test
+    public void editedOrDeletedSourcesAreGeneratedAgain() throws Exception {
+        File output = folder.newFolder("java");
+        new Codegen(compose("\"string\""), output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+        Files.write(new File(output, "other/C.java").toPath(), "edited".getBytes(StandardCharsets.UTF_8));
+        Files.delete(new File(output, "ns/E.java").toPath());
+
+        Codegen codegen = new Codegen(compose("\"string\""), output.getPath(), cache(), GenericData.StringType.String, 1, true);
+        codegen.output();
+        assertEquals(new TreeSet<>(Arrays.asList(path("ns/E.java"), path("other/C.java"))), codegen.changedSources());
+        assertTrue(source(output, "other/C.java").contains("public class C"));
+        assertTrue(source(output, "ns/E.java").contains("public enum E"));
+    }
+
+    @Test
+    public void typesNoLongerComposedAreDeleted() throws Exception {
+        File output = folder.newFolder("java");
+        Map<String, SchemaFile.Parsed> schemas = compose("\"string\"");
+        new Codegen(schemas, output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+
+        new Codegen(Collections.singletonMap("ns.A", schemas.get("ns.A")), output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+        assertTrue(new File(output, "ns/A.java").exists());
+        assertFalse(new File(output, "ns/B.java").exists());
+        assertFalse(new File(output, "other/C.java").exists());
+    }
+
+    @Test
+    public void stateIsKeptInCacheDirectoryNotAmongSources() throws Exception {
+        File output = folder.newFolder("java");
+        Files.write(new File(output, ".avro-compose-codegen.json").toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        new Codegen(compose("\"string\""), output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+
+        assertEquals(Arrays.asList("ns", "other"), sorted(output.list()));
+        assertTrue(new File(cache(), "avro-compose-codegen.json").isFile());
+    }
+
+    @Test
+    public void withoutCacheDirectoryAllTypesAreGenerated() throws Exception {
+        File output = folder.newFolder("java");
+        new Codegen(compose("\"string\""), output.getPath(), null, GenericData.StringType.String, 1, true).output();
+        Files.write(new File(output, "other/C.java").toPath(), "edited".getBytes(StandardCharsets.UTF_8));
+
+        new Codegen(compose("\"long\""), output.getPath(), null, GenericData.StringType.String, 1, true).output();
+        assertTrue(source(output, "other/C.java").contains("public class C"));
+        assertEquals(Arrays.asList("ns", "other"), sorted(output.list()));
+    }
+
+    @Test
+    public void typeNamedLikeBatchProtocolGetsItsClass() throws Exception {
+        File input = new File(folder.getRoot(), "input");
+        Map<String, SchemaFile.Parsed> schemas = new Compose(Arrays.asList(
+                ComposeTest.write(input, "a.avsc", ComposeTest.record("AvroComposeCodegenBatch", "\"string\"")),
+                ComposeTest.write(input, "b.avsc", ComposeTest.record("AvroComposeCodegenBatch1", "\"AvroComposeCodegenBatch\"")))).compose();
+        File output = folder.newFolder("java");
+        new Codegen(schemas, output.getPath(), cache(), GenericData.StringType.String, 1, true).output();
+
+        assertTrue(source(output, "AvroComposeCodegenBatch.java").contains("public class AvroComposeCodegenBatch extends org.apache.avro.specific.SpecificRecordBase"));
+        assertTrue(source(output, "AvroComposeCodegenBatch1.java").contains("private AvroComposeCodegenBatch f0;"));
+        assertEquals(Arrays.asList("AvroComposeCodegenBatch.java", "AvroComposeCodegenBatch1.java"), sorted(output.list()));
+    }
+
+    private static List<String> sorted(final String[] names) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,77 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompatibilityTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * File names sort in reverse order of dependencies: x.C refers to y.B, which refers to z.A.
+     */
+    private Map<String, SchemaFile.Parsed> compose(final String name, final String aFieldType) throws Exception {
+        File input = folder.newFolder(name);
+        return new Compose(Arrays.asList(
+                ComposeTest.write(input, "a.avsc", ComposeTest.record("z.A", aFieldType)),
+                ComposeTest.write(input, "b.avsc", ComposeTest.record("y.B", "\"z.A\"")),
+                ComposeTest.write(input, "c.avsc", ComposeTest.record("x.C", "\"y.B\"", "\"z.A\"")))).compose();
+    }
+
+    private File baseline(final String format, final String template) throws Exception {
+        File baseline = folder.newFolder("baseline");
+        new Schemas(compose("previous", "\"string\""), baseline.getPath(), format, template).output();
+        return baseline;
+    }
+
+    private Compatibility.Report check(final File baseline, final Map<String, SchemaFile.Parsed> schemas) throws IOException {
+        try (Compatibility.Baseline opened = Compatibility.Baseline.open(baseline.getPath())) {
+            return new Compatibility(opened, Compatibility.Level.BACKWARD, null, 1).check(schemas);
+        }
+    }
+
+    @Test
+    public void referencedBaselineIsParsedInDependencyOrder() throws Exception {
+        Compatibility.Report report = check(baseline("referenced", SchemasTest.BY_NAME), compose("current", "\"string\""));
+
+        assertEquals(3, report.count(Compatibility.Status.UNCHANGED));
+    }
+
+    @Test
+    public void referencedBaselineDetectsIncompatibleChange() throws Exception {
+        Compatibility.Report report = check(baseline("referenced", SchemasTest.BY_NAMESPACE), compose("current", "\"int\""));
+
+        assertEquals(Arrays.asList("x.C", "y.B", "z.A"), Arrays.asList(report.incompatible().toArray()));
+    }
+
+    @Test
+    public void typesWrittenInFullInMoreFilesAreParsed() throws Exception {
+        Compatibility.Report report = check(baseline("oneline", SchemasTest.BY_NAME), compose("current", "\"string\""));
+
+        assertEquals(3, report.count(Compatibility.Status.UNCHANGED));
+        assertEquals(Collections.emptySet(), report.incompatible());
+    }
+
+    @Test
+    public void missingReferencedTypeFails() throws Exception {
+        File baseline = baseline("referenced", SchemasTest.BY_NAME);
+        assertTrue(new File(baseline, "z.A.avsc").delete());
+        try {
+            Compatibility.Baseline.open(baseline.getPath()).close();
+            fail("Expected baseline to fail");
+        } catch (IOException ex) {
+            assertEquals("Cannot parse baseline file: " + new File(baseline, "y.B.avsc").getPath(), ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ComposeEngineTest {
+
+    private static ComposeEngine engine() throws Exception {
+        return new ComposeEngine().withBase(Arrays.asList(
+                SchemaSource.Factory.string("a.avsc", ComposeTest.record("base.A", "\"string\"")),
+                SchemaSource.Factory.string("b.avsc", ComposeTest.record("base.B", "\"base.A\""))));
+    }
+
+    @Test
+    public void requestReturnsOnlyItsOwnTypes() throws Exception {
+        ComposeEngine engine = engine();
+        Map<String, SchemaFile.Parsed> composed = engine.compose(Collections.singletonList(
+                SchemaSource.Factory.string("c.avsc", ComposeTest.record("req.C", "\"base.B\""))));
+
+        assertEquals(Collections.singleton("req.C"), composed.keySet());
+        assertEquals(new HashSet<>(Arrays.asList("base.A", "base.B")), engine.baseTypes().keySet());
+        assertSame(engine.baseTypes().get("base.B").types().get("base.B"), composed.get("req.C").types().get("req.C").getField("f0").schema());
+    }
+
+    @Test
+    public void requestsDoNotChangeTheBase() throws Exception {
+        ComposeEngine engine = engine();
+        engine.compose(Collections.singletonList(SchemaSource.Factory.string("c.avsc", ComposeTest.record("req.C", "\"base.A\""))));
+        Map<String, SchemaFile.Parsed> composed = engine.compose(Collections.singletonList(
+                SchemaSource.Factory.string("d.avsc", ComposeTest.record("req.D", "\"base.A\""))));
+
+        assertEquals(Collections.singleton("req.D"), composed.keySet());
+        assertEquals(2, engine.base().size());
+    }
+
+    @Test
+    public void withBaseAddsTheComposedLayer() throws Exception {
+        ComposeEngine engine = engine().withBase(Collections.singletonList(
+                SchemaSource.Factory.string("c.avsc", ComposeTest.record("layer.C", "\"base.B\""))));
+
+        assertEquals(new HashSet<>(Arrays.asList("base.A", "base.B", "layer.C")), engine.baseTypes().keySet());
+        Map<String, SchemaFile.Parsed> composed = engine.compose(Collections.singletonList(
+                SchemaSource.Factory.string("d.avsc", ComposeTest.record("req.D", "\"layer.C\""))));
+        assertEquals(Collections.singleton("req.D"), composed.keySet());
+    }
+}
@@ -0,0 +1,217 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ComposeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static String record(final String fullname, final String... fieldTypes) {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < fieldTypes.length; i++) {
+            fields.append(i == 0 ? "" : ", ").append("{\"name\": \"f").append(i).append("\", \"type\": ").append(fieldTypes[i]).append("}");
+        }
+        return "{\"type\": \"record\", \"name\": \"" + fullname + "\", \"fields\": [" + fields + "]}";
+    }
+
+    static String write(final File directory, final String name, final String json) throws IOException {
+        File file = new File(directory, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private String write(final String name, final String json) throws IOException {
+        return write(folder.getRoot(), name, json);
+    }
+
+    @Test
+    public void filesAreParsedInDependencyOrder() throws Exception {
+        String a = write("a.avsc", record("ns.C", "\"ns.B\""));
+        String b = write("b.avsc", record("ns.B", "\"ns.A\""));
+        String c = write("c.avsc", record("ns.A", "\"string\""));
+
+        Compose.DependencyGraph graph = Compose.DependencyGraph.scan(Arrays.asList(a, b, c));
+        assertEquals(Arrays.asList(c, b, a), graph.order());
+
+        Compose compose = new Compose(Arrays.asList(a, b, c));
+        Map<String, SchemaFile.Parsed> schemas = compose.compose();
+        assertEquals(Arrays.asList("ns.A", "ns.B", "ns.C"), new ArrayList<>(schemas.keySet()));
+        assertEquals(3, compose.attempts());
+        assertEquals("ns.A", schemas.get("ns.C").types().get("ns.C").getField("f0").schema().getField("f0").schema().getFullName());
+    }
+
+    @Test
+    public void independentFilesKeepInputOrder() throws Exception {
+        List<String> files = new ArrayList<>();
+        for (String name : Arrays.asList("z", "y", "x")) {
+            files.add(write(name + ".avsc", record("ns." + name.toUpperCase(), "\"int\"")));
+        }
+
+        assertEquals(files, Compose.DependencyGraph.scan(files).order());
+    }
+
+    @Test
+    public void unqualifiedReferenceResolvesToEnclosingNamespace() throws Exception {
+        String user = write("user.avsc", "{\"type\": \"record\", \"name\": \"User\", \"namespace\": \"ns\", \"fields\": [{\"name\": \"address\", \"type\": \"Address\"}]}");
+        String address = write("address.avsc", record("ns.Address", "\"string\""));
+
+        Compose compose = new Compose(Arrays.asList(user, address));
+        Map<String, SchemaFile.Parsed> schemas = compose.compose();
+        assertEquals(2, compose.attempts());
+        assertEquals(address, schemas.get("ns.Address").filename());
+    }
+
+    @Test
+    public void dependencyLevelsHoldOnlyEarlierDependencies() throws Exception {
+        String a = write("a.avsc", record("ns.A", "\"string\""));
+        String b = write("b.avsc", record("ns.B", "\"ns.A\""));
+        String c = write("c.avsc", record("ns.C", "\"ns.A\"", "\"ns.B\""));
+        String d = write("d.avsc", record("ns.D", "\"int\""));
+
+        Compose.DependencyGraph graph = Compose.DependencyGraph.scan(Arrays.asList(c, b, a, d));
+        assertEquals(Arrays.asList(Arrays.asList(a, d), Arrays.asList(b), Arrays.asList(c)), graph.levels(Collections.emptySet()));
+        assertEquals(Arrays.asList(Arrays.asList(b, d), Arrays.asList(c)), graph.levels(Collections.singleton(a)));
+    }
+
+    @Test
+    public void parallelCompositionMatchesSerial() throws Exception {
+        // fan-in over the threshold, so the parallel path is taken on machines with more processors
+        List<String> files = new ArrayList<>();
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < 2 * Compose.PARALLEL_THRESHOLD; i++) {
+            files.add(write("leaf" + i + ".avsc", record("ns.Leaf" + i, "\"string\"")));
+            all.append(i == 0 ? "" : ", ").append("\"ns.Leaf").append(i).append("\"");
+        }
+        files.add(0, write("root.avsc", record("ns.Root", "{\"type\": \"array\", \"items\": [" + all + "]}")));
+
+        Compose serial = new Compose(files);
+        Compose parallel = Compose.builder(files).parallelism(8).build();
+        Map<String, SchemaFile.Parsed> expected = serial.compose();
+        Map<String, SchemaFile.Parsed> actual = parallel.compose();
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String type : expected.keySet()) {
+            assertEquals(expected.get(type).types().get(type), actual.get(type).types().get(type));
+        }
+        assertEquals(files.size(), parallel.attempts());
+    }
+
+    @Test
+    public void eachFileIsReadOnce() throws Exception {
+        List<String> files = Arrays.asList(
+                write("a.avsc", record("ns.C", "\"ns.B\"", "\"ns.A\"")),
+                write("b.avsc", record("ns.B", "\"ns.A\"")),
+                write("c.avsc", record("ns.A", "\"string\"")));
+        long size = 0;
+        for (String file : files) {
+            size += new File(file).length();
+        }
+
+        Report report = new Report();
+        Events.report(report);
+        try {
+            new Compose(files).compose();
+        } finally {
+            Events.report(null);
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        report.output(os);
+        JsonNode json = new ObjectMapper().readTree(os.toByteArray());
+        assertEquals(size, json.path("bytesRead").asLong());
+        for (JsonNode file : json.path("details")) {
+            assertEquals(file.path("filename").asText(), new File(file.path("filename").asText()).length(), file.path("bytesRead").asLong());
+        }
+    }
+
+    @Test
+    public void brokenFilesAndTheirDependentsAreNotParsed() throws Exception {
+        List<String> files = Arrays.asList(
+                write("ok.avsc", record("ns.Ok", "\"string\"")),
+                write("uses-ok.avsc", record("ns.UsesOk", "\"ns.Ok\"")),
+                write("missing.avsc", record("ns.Missing", "\"ns.Ok\"", "\"ns.Undeclared\"")),
+                write("uses-missing.avsc", record("ns.UsesMissing", "\"ns.Missing\"")),
+                write("x.avsc", record("ns.X", "\"ns.Y\"")),
+                write("y.avsc", record("ns.Y", "\"ns.X\"")));
+
+        Report report = new Report();
+        Events.report(report);
+        Compose compose = new Compose(files);
+        try {
+            compose.compose();
+            fail("Expected composition to fail");
+        } catch (Exception ex) {
+            assertEquals("Error parsing files.", ex.getMessage());
+        } finally {
+            Events.report(null);
+        }
+        assertEquals(2, compose.attempts());
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        report.output(os);
+        Set<String> parsed = new HashSet<>();
+        for (JsonNode file : new ObjectMapper().readTree(os.toByteArray()).path("details")) {
+            if (file.path("attempts").asInt() > 0) {
+                parsed.add(file.path("filename").asText());
+            }
+        }
+        assertEquals(new HashSet<>(files.subList(0, 2)), parsed);
+    }
+
+    @Test
+    public void onlyTargetTypesAndTheirDependenciesAreComposed() throws Exception {
+        List<String> files = Arrays.asList(
+                write("a.avsc", record("ns.A", "\"string\"")),
+                write("b.avsc", record("ns.B", "\"ns.A\"")),
+                write("c.avsc", record("ns.C", "\"ns.A\"")),
+                write("d.avsc", record("ns.D", "\"ns.Missing\"")));
+
+        Compose compose = Compose.builder(files).targets(Collections.singletonList("ns.B")).build();
+        Map<String, SchemaFile.Parsed> schemas = compose.compose();
+        assertEquals(Arrays.asList("ns.A", "ns.B"), new ArrayList<>(schemas.keySet()));
+        assertEquals(2, compose.attempts());
+    }
+
+    @Test
+    public void undeclaredTargetTypeFails() throws Exception {
+        String a = write("a.avsc", record("ns.A", "\"string\""));
+
+        try {
+            Compose.builder(Collections.singletonList(a)).targets(Arrays.asList("ns.A", "ns.Unknown")).build().compose();
+            fail("Expected composition to fail");
+        } catch (Exception ex) {
+            assertEquals("Target types are not declared in any input file: [ns.Unknown]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void missingTypeFailsComposition() throws Exception {
+        String ok = write("ok.avsc", record("ns.Ok", "\"string\""));
+        String broken = write("broken.avsc", record("ns.Broken", "\"ns.Ok\"", "\"ns.Missing\""));
+
+        try {
+            new Compose(Arrays.asList(broken, ok)).compose();
+            fail("Expected composition to fail");
+        } catch (Exception ex) {
+            assertEquals("Error parsing files.", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<String> relative(final List<String> files) {
+        List<String> relative = new ArrayList<>();
+        for (String file : files) {
+            relative.add(folder.getRoot().toPath().relativize(new File(file).toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        return relative;
+    }
+
+    private void touch(final String... names) throws Exception {
+        for (String name : names) {
+            ComposeTest.write(folder.getRoot(), name, "{}");
+        }
+    }
+
+    @Test
+    public void defaultGlobsSkipHiddenAndBuildDirectories() throws Exception {
+        touch("a10.avsc", "a9.avsc", "b.json", "c.schema", "d.txt", ".hidden.avsc", "sub/e.avsc", ".git/f.avsc", "target/g.avsc", "node_modules/h.avsc", "sub/target/i.avsc");
+
+        assertEquals(Arrays.asList("a9.avsc", "a10.avsc", "b.json", "c.schema", "sub/e.avsc"),
+                relative(new Discovery().files(Collections.singletonList(folder.getRoot().getPath()))));
+    }
+
+    @Test
+    public void globsWithSlashMatchRelativePath() throws Exception {
+        touch("api/v1/a.avsc", "api/v2/b.avsc", "internal/c.avsc", "api/v1/d.avsc.bak");
+        Discovery discovery = new Discovery(Arrays.asList("api/**.avsc", "*.bak"), Arrays.asList("v2", "d.avsc.*"));
+
+        assertEquals(Collections.singletonList("api/v1/a.avsc"), relative(discovery.files(Collections.singletonList(folder.getRoot().getPath()))));
+    }
+
+    @Test
+    public void nameGlobsMatchLikePathMatcher() throws Exception {
+        touch("x.avsc", "avsc", "y.AVSC", "[z].avsc", "pre-a.json", "a-pre.json", "exact");
+        Discovery discovery = new Discovery(Arrays.asList("*.avsc", "pre*", "exact", "[[]*"), Collections.singletonList("a-*"));
+
+        assertEquals(Arrays.asList("[z].avsc", "exact", "pre-a.json", "x.avsc"), relative(discovery.files(Collections.singletonList(folder.getRoot().getPath()))));
+    }
+
+    @Test
+    public void explicitFilesAreAlwaysUsedOnce() throws Exception {
+        touch("a.txt", "dir/b.avsc");
+        String a = new File(folder.getRoot(), "a.txt").getPath();
+        String dir = new File(folder.getRoot(), "dir").getPath();
+
+        assertEquals(Arrays.asList("a.txt", "dir/b.avsc"), relative(new Discovery().files(Arrays.asList(a, dir, dir, new File(folder.getRoot(), "missing").getPath()))));
+    }
+
+    @Test
+    public void excludedDirectoriesAreReported() {
+        Discovery discovery = new Discovery();
+        File root = folder.getRoot();
+        assertFalse(discovery.excluded(root.toPath(), root.toPath()));
+        assertFalse(discovery.excluded(root.toPath(), root.toPath().resolve("schemas")));
+        assertTrue(discovery.excluded(root.toPath(), root.toPath().resolve("schemas/target")));
+        assertTrue(discovery.excluded(root.toPath(), root.toPath().resolve(".git")));
+    }
+}
@@ -0,0 +1,76 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MainTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<String> TYPES = Arrays.asList("ns.A", "ns.B", "ns.C", "ns.D", "ns.E", "ns.F");
+
+    private File input() throws Exception {
+        File input = folder.newFolder("input");
+        for (String type : TYPES) {
+            ComposeTest.write(input, type + ".avsc", ComposeTest.record(type, type.equals("ns.A") ? "\"string\"" : "\"ns.A\""));
+        }
+        return input;
+    }
+
+    /**
+     * @return types in the single output file of the namespace
+     */
+    private static Set<String> types(final File output) throws Exception {
+        File file = new File(output, "ns.avsc");
+        Set<String> types = new TreeSet<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            types.add(new Schema.Parser().parse(line).getFullName());
+        }
+        return types;
+    }
+
+    private void assertShardsWriteOnlyOwnedTypes(final String... options) throws Exception {
+        File input = input();
+        Set<String> all = new HashSet<>();
+        for (int i = 1; i <= 2; i++) {
+            Shard shard = new Shard(i, 2);
+            File output = folder.newFolder("output" + i);
+            List<String> args = new ArrayList<>(Arrays.asList(input.getPath(), "-o", output.getPath(), "--output.schemas.format", "oneline",
+                    "--output.schemas.filename.template", SchemasTest.BY_NAMESPACE, "--shard", shard.toString()));
+            args.addAll(Arrays.asList(options));
+            Main.main(args.toArray(new String[0]));
+
+            Set<String> written = types(output);
+            for (String type : written) {
+                assertTrue(type + " written by shard " + shard, shard.owns(type));
+            }
+            all.addAll(written);
+        }
+        assertEquals(new HashSet<>(TYPES), all);
+    }
+
+    @Test
+    public void shardWritesOnlyOwnedTypesIntoSharedFile() throws Exception {
+        assertShardsWriteOnlyOwnedTypes();
+    }
+
+    @Test
+    public void streamingShardWritesOnlyOwnedTypesIntoSharedFile() throws Exception {
+        assertShardsWriteOnlyOwnedTypes("--output.streaming");
+    }
+}
@@ -0,0 +1,88 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.SchemaNormalization;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ManifestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String output(final Manifest manifest) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        manifest.output(os);
+        return os.toString("UTF-8");
+    }
+
+    private Map<String, SchemaFile.Parsed> compose() throws Exception {
+        String a = ComposeTest.write(folder.getRoot(), "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        String b = ComposeTest.write(folder.getRoot(), "b.avsc", ComposeTest.record("ns.B", "\"ns.A\""));
+        return new Compose(Arrays.asList(b, a)).compose();
+    }
+
+    @Test
+    public void typesHaveSourceDependenciesAndFingerprints() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        JsonNode types = new ObjectMapper().readTree(output(new Manifest(schemas))).path("types");
+
+        assertEquals(2, types.size());
+        JsonNode b = types.get(1);
+        assertEquals("ns.B", b.path("fullname").asText());
+        assertEquals(schemas.get("ns.B").filename(), b.path("source").asText());
+        assertEquals(schemas.get("ns.A").filename(), b.path("dependencies").get(0).asText());
+        assertEquals(String.format("%016x", SchemaNormalization.parsingFingerprint64(schemas.get("ns.B").types().get("ns.B"))), b.path("crc64").asText());
+    }
+
+    @Test
+    public void readOutputAndMergeOfShardsGiveTheSameManifest() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        String full = output(new Manifest(schemas));
+        assertEquals(full, output(Manifest.read(new ByteArrayInputStream(full.getBytes("UTF-8")))));
+
+        Map<String, SchemaFile.Parsed> first = new HashMap<>();
+        first.put("ns.A", schemas.get("ns.A"));
+        Map<String, SchemaFile.Parsed> second = new HashMap<>();
+        second.put("ns.B", schemas.get("ns.B"));
+        assertEquals(full, output(Manifest.merge(Arrays.asList(new Manifest(first), new Manifest(second)))));
+    }
+
+    @Test
+    public void conflictingEntriesFailMerge() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        String other = ComposeTest.write(folder.getRoot(), "other/a.avsc", ComposeTest.record("ns.A", "\"int\""));
+        Map<String, SchemaFile.Parsed> conflicting = new Compose(Arrays.asList(other)).compose();
+        try {
+            Manifest.merge(Arrays.asList(new Manifest(schemas), new Manifest(conflicting)));
+            fail("Expected conflicting manifests to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Type: ns.A differs between manifests"));
+        }
+    }
+
+    @Test
+    public void fingerprintIgnoresDocumentation() throws Exception {
+        String plain = ComposeTest.write(folder.getRoot(), "plain/a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        String documented = ComposeTest.write(folder.getRoot(), "documented/a.avsc",
+                "{\"type\": \"record\", \"name\": \"ns.A\", \"doc\": \"documented\", \"fields\": [{\"name\": \"f0\", \"type\": \"string\", \"doc\": \"field\"}]}");
+        String changed = ComposeTest.write(folder.getRoot(), "changed/a.avsc", ComposeTest.record("ns.A", "\"int\""));
+
+        Fingerprint fingerprint = new Compose(Arrays.asList(plain)).compose().get("ns.A").fingerprint("ns.A");
+        assertEquals(fingerprint, new Compose(Arrays.asList(documented)).compose().get("ns.A").fingerprint("ns.A"));
+        assertNotEquals(fingerprint, new Compose(Arrays.asList(changed)).compose().get("ns.A").fingerprint("ns.A"));
+    }
+}
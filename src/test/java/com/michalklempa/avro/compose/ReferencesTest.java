@@ -0,0 +1,68 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReferencesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, SchemaFile.Parsed> compose() throws Exception {
+        String address = ComposeTest.write(folder.getRoot(), "address.avsc", "{\"type\": \"record\", \"name\": \"Address\", \"namespace\": \"ns.geo\", \"fields\": [" +
+                "{\"name\": \"country\", \"type\": {\"type\": \"enum\", \"name\": \"Country\", \"symbols\": [\"SK\", \"CZ\"]}, \"default\": \"SK\"}," +
+                "{\"name\": \"zip\", \"type\": {\"type\": \"fixed\", \"name\": \"ns.Zip\", \"size\": 5}}]}");
+        String user = ComposeTest.write(folder.getRoot(), "user.avsc", "{\"type\": \"record\", \"name\": \"User\", \"namespace\": \"ns\", \"doc\": \"A user\", \"fields\": [" +
+                "{\"name\": \"home\", \"type\": \"ns.geo.Address\"}," +
+                "{\"name\": \"other\", \"type\": {\"type\": \"array\", \"items\": [\"null\", \"ns.geo.Address\"]}, \"default\": []}," +
+                "{\"name\": \"zips\", \"type\": {\"type\": \"map\", \"values\": \"Zip\"}}," +
+                "{\"name\": \"manager\", \"type\": [\"null\", \"User\"], \"default\": null}]," +
+                "\"custom\": {\"a\": 1}}");
+        return new Compose(Arrays.asList(user, address)).compose();
+    }
+
+    @Test
+    public void referencedTypesParseBackInOrder() throws Exception {
+        Map<String, SchemaFile.Parsed> composed = compose();
+        Schema.Parser parser = new Schema.Parser();
+        for (String type : References.order(composed)) {
+            Schema expected = composed.get(type).types().get(type);
+            Schema parsed = parser.parse(References.json(expected, false));
+            assertEquals(type, expected, parsed);
+            assertEquals(type, expected.toString(), parsed.toString());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("ns.User", "ns.geo.Address", "ns.geo.Country", "ns.Zip")), parser.getTypes().keySet());
+    }
+
+    @Test
+    public void otherNamedTypesAreWrittenAsFullname() throws Exception {
+        Map<String, SchemaFile.Parsed> composed = compose();
+        String json = References.json(composed.get("ns.User").types().get("ns.User"), false);
+
+        assertTrue(json, json.contains("{\"name\":\"home\",\"type\":\"ns.geo.Address\"}"));
+        // later references are left as Avro writes them, relative to the enclosing namespace
+        assertTrue(json, json.contains("{\"type\":\"map\",\"values\":\"Zip\"}"));
+        assertEquals(Arrays.asList("ns.Zip", "ns.geo.Country", "ns.geo.Address", "ns.User"), References.order(composed));
+    }
+
+    @Test
+    public void definedTypesStayInline() throws Exception {
+        Map<String, SchemaFile.Parsed> composed = compose();
+        Schema address = composed.get("ns.geo.Address").types().get("ns.geo.Address");
+        String json = References.json(address, new HashSet<>(Arrays.asList("ns.geo.Address", "ns.geo.Country")), false);
+
+        Schema.Parser parser = new Schema.Parser();
+        parser.parse(References.json(composed.get("ns.Zip").types().get("ns.Zip"), false));
+        assertEquals(address, parser.parse(json));
+        assertTrue(json, json.contains("\"name\":\"Country\""));
+        assertTrue(json, json.contains("\"type\":\"ns.Zip\""));
+    }
+}
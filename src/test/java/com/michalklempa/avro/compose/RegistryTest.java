@@ -0,0 +1,303 @@
+package com.michalklempa.avro.compose;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegistryTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Stub stub;
+
+    @Before
+    public void start() throws IOException {
+        stub = new Stub();
+    }
+
+    @After
+    public void stop() {
+        stub.stop();
+    }
+
+    /**
+     * x.C refers to y.B, which refers to z.A, w.D is on its own.
+     */
+    private Map<String, SchemaFile.Parsed> compose(final String aFieldType) throws Exception {
+        File input = folder.newFolder();
+        return new Compose(Arrays.asList(
+                ComposeTest.write(input, "c.avsc", ComposeTest.record("x.C", "\"y.B\"")),
+                ComposeTest.write(input, "b.avsc", ComposeTest.record("y.B", "\"z.A\"")),
+                ComposeTest.write(input, "a.avsc", ComposeTest.record("z.A", aFieldType)),
+                ComposeTest.write(input, "d.avsc", ComposeTest.record("w.D", "\"int\"")))).compose();
+    }
+
+    private int export(final Map<String, SchemaFile.Parsed> schemas) throws IOException {
+        return new Registry(stub.url(), "{{schema.fullname}}", 4, 2, true).export(schemas);
+    }
+
+    @Test
+    public void typesAreRegisteredInDependencyOrder() throws Exception {
+        assertEquals(4, export(compose("\"string\"")));
+
+        List<String> registered = stub.requests("/versions");
+        assertEquals(4, registered.size());
+        assertTrue(registered.toString(), registered.indexOf("POST /subjects/z.A/versions") < registered.indexOf("POST /subjects/y.B/versions"));
+        assertTrue(registered.toString(), registered.indexOf("POST /subjects/y.B/versions") < registered.indexOf("POST /subjects/x.C/versions"));
+        JsonNode reference = stub.latest("y.B").path("references").get(0);
+        assertEquals("z.A", reference.path("name").asText());
+        assertEquals("z.A", reference.path("subject").asText());
+        assertEquals(1, reference.path("version").asInt());
+    }
+
+    @Test
+    public void registeredSchemasAreSkippedWithoutLookups() throws Exception {
+        export(compose("\"string\""));
+        stub.clear();
+
+        assertEquals(0, export(compose("\"string\"")));
+        // 4 subjects in pages of 2, the last page is empty
+        assertEquals(Arrays.asList(
+                "GET /schemas?latestOnly=true&offset=0&limit=2",
+                "GET /schemas?latestOnly=true&offset=2&limit=2",
+                "GET /schemas?latestOnly=true&offset=4&limit=2"), stub.requests(""));
+    }
+
+    @Test
+    public void onlyExportedSubjectsAreRead() throws Exception {
+        stub.register("other", ComposeTest.record("o.O", "\"int\""));
+        stub.register("x.Other", ComposeTest.record("x.Other", "\"int\""));
+        File input = folder.newFolder();
+        Map<String, SchemaFile.Parsed> schemas = new Compose(Arrays.asList(
+                ComposeTest.write(input, "a.avsc", ComposeTest.record("x.A", "\"int\"")),
+                ComposeTest.write(input, "b.avsc", ComposeTest.record("x.B", "\"int\"")))).compose();
+        export(schemas);
+        stub.clear();
+
+        assertEquals(0, export(schemas));
+        assertEquals(Arrays.asList(
+                "GET /schemas?latestOnly=true&subjectPrefix=x.&offset=0&limit=2",
+                "GET /schemas?latestOnly=true&subjectPrefix=x.&offset=2&limit=2"), stub.requests(""));
+    }
+
+    @Test
+    public void registryWithoutSchemaListIsAskedSubjectBySubject() throws Exception {
+        stub.legacy();
+        export(compose("\"string\""));
+        stub.clear();
+
+        assertEquals(0, export(compose("\"string\"")));
+        assertTrue(stub.requests("/versions").isEmpty());
+        List<String> requests = stub.requests("");
+        assertEquals("GET /schemas?latestOnly=true&offset=0&limit=2", requests.get(0));
+        assertEquals(5, requests.size());
+        for (String request : requests.subList(1, requests.size())) {
+            assertTrue(request, request.startsWith("POST /subjects/"));
+        }
+    }
+
+    @Test
+    public void typesReferringToChangedTypeAreRegisteredAgain() throws Exception {
+        export(compose("\"string\""));
+        stub.clear();
+
+        assertEquals(3, export(compose("\"long\"")));
+        assertFalse(stub.requests("/versions").contains("POST /subjects/w.D/versions"));
+        assertEquals(2, stub.latest("x.C").path("references").get(0).path("version").asInt());
+    }
+
+    @Test
+    public void failedRequestStopsTheExport() throws Exception {
+        stub.fail("y.B");
+        try {
+            export(compose("\"string\""));
+            fail("Expected the export to fail");
+        } catch (IOException ex) {
+            assertEquals("Schema registry request: POST /subjects/y.B/versions failed with status: 500, {\"error_code\":50001,\"message\":\"Store error\"}", ex.getMessage());
+        }
+        // the next wave is not registered
+        assertFalse(stub.requests("").contains("POST /subjects/x.C"));
+        assertFalse(stub.requests("").contains("POST /subjects/x.C/versions"));
+    }
+
+    /**
+     * Schema registry holding subjects in memory, lookup matches the schema and its references exactly.
+     */
+    private static class Stub {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newFixedThreadPool(4);
+        private final Map<String, List<ObjectNode>> subjects = new HashMap<>();
+        private final List<String> requests = new ArrayList<>();
+        private String failing;
+        private boolean legacy;
+        private int ids;
+
+        Stub() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", this::handle);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String url() {
+            return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdown();
+        }
+
+        synchronized void fail(final String subject) {
+            failing = subject;
+        }
+
+        /**
+         * Serve no schema list, like registries before it was added.
+         */
+        synchronized void legacy() {
+            legacy = true;
+        }
+
+        synchronized void register(final String subject, final String schema) {
+            ObjectNode version = OBJECT_MAPPER.createObjectNode().put("subject", subject).put("id", ++ids).put("version", 1).put("schema", schema);
+            subjects.computeIfAbsent(subject, k -> new ArrayList<>()).add(version);
+        }
+
+        synchronized void clear() {
+            requests.clear();
+        }
+
+        /**
+         * @return requests so far, whose path ends with given suffix
+         */
+        synchronized List<String> requests(final String suffix) {
+            List<String> matching = new ArrayList<>();
+            for (String request : requests) {
+                if (request.endsWith(suffix)) {
+                    matching.add(request);
+                }
+            }
+            return matching;
+        }
+
+        synchronized ObjectNode latest(final String subject) {
+            List<ObjectNode> versions = subjects.get(subject);
+            return versions.get(versions.size() - 1);
+        }
+
+        private void handle(final HttpExchange exchange) throws IOException {
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+            String query = exchange.getRequestURI().getRawQuery();
+            byte[] bytes = IOUtils.toByteArray(exchange.getRequestBody());
+            JsonNode body = bytes.length == 0 ? OBJECT_MAPPER.createObjectNode() : OBJECT_MAPPER.readTree(bytes);
+            ObjectNode response = OBJECT_MAPPER.createObjectNode();
+            if (exchange.getRequestMethod().equals("GET") && path.equals("/schemas") && !legacy) {
+                respond(exchange, 200, list(query));
+                return;
+            }
+            int status = answer(exchange.getRequestMethod(), path + (query == null ? "" : "?" + query), body, response);
+            respond(exchange, status, response);
+        }
+
+        /**
+         * @return page of latest schemas of the subjects sorted by name, starting with the prefix if given
+         */
+        private synchronized ArrayNode list(final String query) throws IOException {
+            requests.add("GET /schemas?" + query);
+            Map<String, String> parameters = new HashMap<>();
+            for (String parameter : query.split("&")) {
+                parameters.put(parameter.substring(0, parameter.indexOf('=')), URLDecoder.decode(parameter.substring(parameter.indexOf('=') + 1), "UTF-8"));
+            }
+            List<ObjectNode> latest = new ArrayList<>();
+            for (String subject : new TreeSet<>(subjects.keySet())) {
+                if (subject.startsWith(parameters.getOrDefault("subjectPrefix", "")) && !subjects.get(subject).isEmpty()) {
+                    latest.add(latest(subject));
+                }
+            }
+            int offset = Integer.parseInt(parameters.get("offset"));
+            int limit = Integer.parseInt(parameters.get("limit"));
+            ArrayNode page = OBJECT_MAPPER.createArrayNode();
+            page.addAll(latest.subList(Math.min(offset, latest.size()), Math.min(offset + limit, latest.size())));
+            return page;
+        }
+
+        /**
+         * Subject lookup and registration are served.
+         *
+         * @return HTTP status, response is filled in
+         */
+        private synchronized int answer(final String method, final String path, final JsonNode body, final ObjectNode response) {
+            requests.add(method + " " + path);
+            if (!method.equals("POST") || !path.startsWith("/subjects/")) {
+                response.put("error_code", 404).put("message", "HTTP 404 Not Found");
+                return 404;
+            }
+            String subject = path.substring("/subjects/".length()).replaceFirst("/versions$", "");
+            List<ObjectNode> versions = subjects.computeIfAbsent(subject, k -> new ArrayList<>());
+            ObjectNode found = null;
+            for (ObjectNode version : versions) {
+                if (version.path("schema").equals(body.path("schema")) && version.path("references").equals(body.path("references"))) {
+                    found = version;
+                }
+            }
+            if (path.endsWith("/versions") && subject.equals(failing)) {
+                response.put("error_code", 50001).put("message", "Store error");
+                return 500;
+            } else if (path.endsWith("/versions")) {
+                if (found == null) {
+                    found = OBJECT_MAPPER.createObjectNode().put("subject", subject).put("id", ++ids).put("version", versions.size() + 1);
+                    found.set("schema", body.path("schema"));
+                    found.set("references", body.path("references"));
+                    versions.add(found);
+                }
+                response.put("id", found.path("id").asInt());
+                return 200;
+            } else if (found == null) {
+                response.put("error_code", 40403).put("message", "Schema not found");
+                return 404;
+            }
+            response.setAll(found);
+            return 200;
+        }
+
+        private static void respond(final HttpExchange exchange, final int status, final JsonNode response) throws IOException {
+            byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(response);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+}
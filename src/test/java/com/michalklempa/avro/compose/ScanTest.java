@@ -0,0 +1,77 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanTest {
+
+    private static Scan scan(final String json) throws IOException {
+        return Scan.scan("test.avsc", new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<List<String>> candidates(final Scan scan) {
+        List<List<String>> candidates = new ArrayList<>();
+        for (Scan.Reference reference : scan.references()) {
+            candidates.add(reference.candidates());
+        }
+        return candidates;
+    }
+
+    @Test
+    public void declarationsIncludeNestedTypes() throws IOException {
+        Scan scan = scan("{\"type\": \"record\", \"name\": \"Outer\", \"namespace\": \"a\", \"fields\": [" +
+                "{\"name\": \"e\", \"type\": {\"type\": \"enum\", \"name\": \"E\", \"symbols\": [\"X\"]}}," +
+                "{\"name\": \"f\", \"type\": {\"type\": \"fixed\", \"name\": \"b.F\", \"size\": 4}}," +
+                "{\"name\": \"i\", \"type\": {\"type\": \"record\", \"name\": \"Inner\", \"namespace\": \"c\", \"fields\": []}}]}");
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a.Outer", "a.E", "b.F", "c.Inner")), scan.declarations());
+        assertEquals(0, scan.references().size());
+    }
+
+    @Test
+    public void referencesResolveNamespaceLikeAvro() throws IOException {
+        // namespace comes after fields, references inside still resolve against it
+        Scan scan = scan("{\"type\": \"record\", \"name\": \"Outer\", \"fields\": [" +
+                "{\"name\": \"a\", \"type\": \"Plain\"}," +
+                "{\"name\": \"b\", \"type\": \"x.Qualified\"}," +
+                "{\"name\": \"c\", \"type\": {\"type\": \"array\", \"items\": \"Item\"}}," +
+                "{\"name\": \"d\", \"type\": {\"type\": \"map\", \"values\": [\"null\", \"Value\"]}}," +
+                "{\"name\": \"e\", \"type\": {\"type\": \"Typed\"}}," +
+                "{\"name\": \"f\", \"type\": \"string\"}], \"namespace\": \"ns\"}");
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("ns.Plain", "Plain"),
+                Arrays.asList("x.Qualified"),
+                Arrays.asList("ns.Item", "Item"),
+                Arrays.asList("ns.Value", "Value"),
+                Arrays.asList("ns.Typed")), candidates(scan));
+    }
+
+    @Test
+    public void referencesToOwnDeclarationsAreSkipped() throws IOException {
+        Scan scan = scan("{\"type\": \"record\", \"name\": \"ns.Node\", \"fields\": [" +
+                "{\"name\": \"next\", \"type\": [\"null\", \"Node\"]}," +
+                "{\"name\": \"other\", \"type\": \"Other\"}," +
+                "{\"name\": \"again\", \"type\": \"Other\"}]}");
+
+        assertEquals(Arrays.asList(Arrays.asList("ns.Other", "Other")), candidates(scan));
+    }
+
+    @Test
+    public void topLevelUnionAndNamespaceInheritance() throws IOException {
+        Scan scan = scan("[{\"type\": \"record\", \"name\": \"A\", \"namespace\": \"ns\", \"fields\": [" +
+                "{\"name\": \"b\", \"type\": {\"type\": \"record\", \"name\": \"B\", \"fields\": [{\"name\": \"c\", \"type\": \"C\"}]}}]}, \"other.D\"]");
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("ns.A", "ns.B")), scan.declarations());
+        assertEquals(Arrays.asList(Arrays.asList("ns.C", "C"), Arrays.asList("other.D")), candidates(scan));
+    }
+}
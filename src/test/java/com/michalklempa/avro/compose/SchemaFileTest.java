@@ -0,0 +1,54 @@
+package com.michalklempa.avro.compose;
+
+import org.apache.avro.Schema;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SchemaFileTest {
+
+    private static SchemaFile.Parsed parse(final String filename, final String json, final SchemaFile.Parsed... dependencies) throws Exception {
+        SchemaFile.Attempt attempt = new SchemaFile.AttemptSchemaFile(filename, new HashSet<>(Arrays.asList(dependencies)), json.getBytes(StandardCharsets.UTF_8));
+        return SchemaFile.Factory.parsed(attempt);
+    }
+
+    @Test
+    public void parsedFileHoldsOnlyItsOwnTypes() throws Exception {
+        SchemaFile.Parsed a = parse("a.avsc", ComposeTest.record("ns.A", "{\"type\": \"enum\", \"name\": \"ns.E\", \"symbols\": [\"X\"]}"));
+        SchemaFile.Parsed b = parse("b.avsc", ComposeTest.record("ns.B", "\"ns.A\""), a);
+        SchemaFile.Parsed c = parse("c.avsc", ComposeTest.record("ns.C", "\"ns.B\"", "\"ns.E\""), b, a);
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("ns.A", "ns.E")), a.declarations());
+        assertEquals(Collections.singleton("ns.B"), b.types().keySet());
+        assertEquals(Collections.singleton("ns.C"), c.types().keySet());
+        assertEquals(Collections.singleton("ns.C"), c.declarations());
+    }
+
+    @Test
+    public void dependencyTypesAreSharedNotCopied() throws Exception {
+        SchemaFile.Parsed a = parse("a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        SchemaFile.Parsed b = parse("b.avsc", ComposeTest.record("ns.B", "\"ns.A\""), a);
+
+        Schema field = b.types().get("ns.B").getField("f0").schema();
+        assertSame(a.types().get("ns.A"), field);
+    }
+
+    @Test
+    public void duplicateDependencyTypeIsTakenFromFirstFileByName() throws Exception {
+        SchemaFile.Parsed first = parse("a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        SchemaFile.Parsed second = parse("b.avsc", ComposeTest.record("ns.A", "\"long\""));
+
+        for (int i = 0; i < 20; i++) {
+            SchemaFile.Attempt attempt = SchemaFile.Factory.attempt(SchemaFile.Factory.attempt("c.avsc",
+                    ComposeTest.record("ns.C", "\"ns.A\"").getBytes(StandardCharsets.UTF_8)), i % 2 == 0 ? Arrays.asList(second, first) : Arrays.asList(first, second));
+            assertSame(first.types().get("ns.A"), SchemaFile.Factory.parsed(attempt).types().get("ns.C").getField("f0").schema());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchemasTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final String BY_NAMESPACE = "{{ schema.namespace }}.avsc";
+    static final String BY_NAME = "{{ schema.fullname }}.avsc";
+
+    Map<String, SchemaFile.Parsed> compose() throws Exception {
+        File input = folder.newFolder("input");
+        List<String> files = new ArrayList<>();
+        files.add(ComposeTest.write(input, "a.avsc", ComposeTest.record("one.A", "\"string\"")));
+        files.add(ComposeTest.write(input, "b.avsc", ComposeTest.record("one.B", "\"one.A\"")));
+        files.add(ComposeTest.write(input, "c.avsc", ComposeTest.record("two.C", "\"one.B\"")));
+        return new Compose(files).compose();
+    }
+
+    static String read(final File directory, final String name) throws Exception {
+        return new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void typesSharingOutputFileAreWrittenTogetherInNameOrder() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        new Schemas(schemas, output.getPath(), "oneline", BY_NAMESPACE).output();
+
+        String[] lines = read(output, "one.avsc").split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(schemas.get("one.A").types().get("one.A").toString(), lines[0]);
+        assertEquals(schemas.get("one.B").types().get("one.B").toString(), lines[1]);
+        assertEquals(Arrays.asList("one.avsc", "two.avsc"), sorted(output.list()));
+    }
+
+    @Test
+    public void outputFileOfRemovedTypeIsDeleted() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        new Schemas(schemas, output.getPath(), "oneline", BY_NAME).output();
+
+        Map<String, SchemaFile.Parsed> remaining = new TreeMap<>(schemas);
+        Map<String, SchemaFile.Parsed> removed = Collections.singletonMap("two.C", remaining.remove("two.C"));
+        new Schemas(remaining, output.getPath(), "oneline", BY_NAME).output(Collections.emptySet(), removed);
+        assertEquals(Arrays.asList("one.A.avsc", "one.B.avsc"), sorted(output.list()));
+    }
+
+    @Test
+    public void outputFileSharedWithRemovedTypeIsWrittenWithoutIt() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        new Schemas(schemas, output.getPath(), "oneline", BY_NAMESPACE).output();
+
+        Map<String, SchemaFile.Parsed> remaining = new TreeMap<>(schemas);
+        Map<String, SchemaFile.Parsed> removed = Collections.singletonMap("one.B", remaining.remove("one.B"));
+        new Schemas(remaining, output.getPath(), "oneline", BY_NAMESPACE).output(Collections.emptySet(), removed);
+        assertEquals(schemas.get("one.A").types().get("one.A").toString(), read(output, "one.avsc"));
+        assertEquals(Arrays.asList("one.avsc", "two.avsc"), sorted(output.list()));
+    }
+
+    @Test
+    public void onlyFilesOfGivenTypesAreWritten() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        new Schemas(schemas, output.getPath(), "oneline", BY_NAMESPACE).output(Collections.singleton("one.B"));
+
+        assertEquals(Collections.singletonList("one.avsc"), sorted(output.list()));
+        assertEquals(2, read(output, "one.avsc").split("\n").length);
+    }
+
+    @Test
+    public void parallelOutputMatchesSerial() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File serial = folder.newFolder("serial");
+        File parallel = folder.newFolder("parallel");
+        new Schemas(schemas, serial.getPath(), "canonical", BY_NAME).output();
+        new Schemas(schemas, parallel.getPath(), "canonical", BY_NAME, 4).output();
+
+        assertEquals(sorted(serial.list()), sorted(parallel.list()));
+        for (String name : serial.list()) {
+            assertEquals(read(serial, name), read(parallel, name));
+        }
+    }
+
+    @Test
+    public void unchangedFileIsNotTouched() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("nested/out.avsc");
+        byte[] content = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(Schemas.replace(file, content));
+        assertTrue(file.toFile().setLastModified(1000000000L));
+        assertFalse(Schemas.replace(file, content));
+        assertEquals(1000000000L, file.toFile().lastModified());
+
+        assertTrue(Schemas.replace(file, "{ }".getBytes(StandardCharsets.UTF_8)));
+        assertArrayEquals("{ }".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file));
+        // no temporary files are left behind
+        assertEquals(Collections.singletonList("out.avsc"), sorted(file.getParent().toFile().list()));
+    }
+
+    @Test
+    public void streamingWritesTypeFilesRightAway() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        Schemas.Streaming streaming = new Schemas(Collections.emptyMap(), output.getPath(), "oneline", BY_NAME).streaming();
+        streaming.parsed(schemas.get("one.A"));
+        File file = new File(output, "one.A.avsc");
+        for (int i = 0; i < 100 && !file.isFile(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(file.isFile());
+        streaming.parsed(schemas.get("one.B"));
+        streaming.parsed(schemas.get("two.C"));
+        streaming.finish(schemas);
+
+        File expected = folder.newFolder("expected");
+        new Schemas(schemas, expected.getPath(), "oneline", BY_NAME).output();
+        for (String name : expected.list()) {
+            assertEquals(read(expected, name), read(output, name));
+        }
+        assertEquals(sorted(expected.list()), sorted(output.list()));
+    }
+
+    @Test
+    public void streamingWritesSharedFilesOnlyOnFinish() throws Exception {
+        Map<String, SchemaFile.Parsed> schemas = compose();
+        File output = folder.newFolder("output");
+        Schemas.Streaming aborted = new Schemas(Collections.emptyMap(), output.getPath(), "oneline", BY_NAMESPACE).streaming();
+        for (SchemaFile.Parsed parsed : schemas.values()) {
+            aborted.parsed(parsed);
+        }
+        aborted.abort();
+        assertEquals(0, output.list().length);
+
+        Schemas.Streaming streaming = new Schemas(Collections.emptyMap(), output.getPath(), "oneline", BY_NAMESPACE).streaming(type -> !type.equals("two.C"));
+        for (SchemaFile.Parsed parsed : schemas.values()) {
+            streaming.parsed(parsed);
+        }
+        streaming.finish(Collections.emptyMap());
+        assertEquals(Collections.singletonList("one.avsc"), sorted(output.list()));
+        assertEquals(2, read(output, "one.avsc").split("\n").length);
+    }
+
+    static List<String> sorted(final String[] names) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,78 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class SourcesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File archive(final String name, final String... entries) throws Exception {
+        File archive = new File(folder.getRoot(), name);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(entries[i]));
+                zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return archive;
+    }
+
+    @Test
+    public void archiveEntriesAreDiscoveredAndComposed() throws Exception {
+        File archive = archive("schemas.jar",
+                "com/example/a.avsc", ComposeTest.record("ns.A", "\"string\""),
+                "com/example/b.avsc", ComposeTest.record("ns.B", "\"ns.A\""),
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n");
+
+        List<String> files = new Discovery().files(Collections.singletonList(archive.getPath()));
+        assertEquals(Arrays.asList(archive.getPath() + "!/com/example/a.avsc", archive.getPath() + "!/com/example/b.avsc"), files);
+        Map<String, SchemaFile.Parsed> schemas = new Compose(files).compose();
+        assertEquals(files.get(1), schemas.get("ns.B").filename());
+        assertEquals(ComposeTest.record("ns.A", "\"string\""), new String(Sources.read(files.get(0)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void changedArchiveIsReadAgain() throws Exception {
+        File archive = archive("schemas.zip", "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        List<String> files = new Discovery().files(Collections.singletonList(archive.getPath()));
+        assertEquals("string", new Compose(files).compose().get("ns.A").types().get("ns.A").getField("f0").schema().getName());
+
+        archive("schemas.zip", "a.avsc", ComposeTest.record("ns.A", "\"int\""));
+        assertEquals("int", new Compose(files).compose().get("ns.A").types().get("ns.A").getField("f0").schema().getName());
+    }
+
+    @Test
+    public void classpathResourcesAreDiscoveredInArchives() throws Exception {
+        // class loaders find directories of archives by their entries, as jar tool writes them
+        File archive = archive("resources.jar",
+                "avro/", "",
+                "avro/a.avsc", ComposeTest.record("ns.A", "\"string\""),
+                "other/b.avsc", ComposeTest.record("ns.B", "\"string\""));
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{archive.toURI().toURL()}, null)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            List<String> files = new Discovery().files(Collections.singletonList("classpath:avro"));
+            assertEquals(Collections.singletonList("classpath:avro/a.avsc"), files);
+            assertEquals(Collections.singleton("ns.A"), new Compose(files).compose().keySet());
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+    }
+}
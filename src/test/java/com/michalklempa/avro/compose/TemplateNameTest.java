@@ -0,0 +1,64 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateNameTest {
+
+    private static SchemaFile.Parsed parsed() throws Exception {
+        String json = "{\"type\": \"record\", \"name\": \"User\", \"namespace\": \"com.example\", \"outputFileSuffix\": \"-v1\", \"fields\": []}";
+        return SchemaFile.Factory.parsed(new SchemaFile.AttemptSchemaFile("schemas/user.avsc", Collections.emptySet(), json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void simpleTemplatesAreRenderedDirectly() throws Exception {
+        SchemaFile.Parsed parsed = parsed();
+        for (String template : Arrays.asList(
+                "{{schema.fullname}}.avsc",
+                "{{ schema.namespace | replace('.', '/') }}/{{ schema.name }}{{ schema.props.outputFileSuffix }}.avsc",
+                "{{ source.basename }}")) {
+            TemplateName.Template compiled = TemplateName.compile(template);
+            assertTrue(template, compiled instanceof TemplateName.DirectTemplate);
+            assertEquals(template, new TemplateName.JinjaTemplate(template).render("com.example.User", parsed), compiled.render("com.example.User", parsed));
+        }
+        assertEquals("com/example/User-v1.avsc", new TemplateName("com.example.User", parsed,
+                "{{ schema.namespace | replace('.', '/') }}/{{ schema.name }}{{ schema.props.outputFileSuffix }}.avsc").render());
+    }
+
+    @Test
+    public void otherTemplatesGoThroughJinja() throws Exception {
+        String template = "{{ schema.name | lower }}{% if schema.doc %}-doc{% endif %}.avsc";
+        TemplateName.Template compiled = TemplateName.compile(template);
+        assertTrue(compiled instanceof TemplateName.JinjaTemplate);
+        assertSame(compiled, TemplateName.compile(template));
+        assertEquals("user.avsc", compiled.render("com.example.User", parsed()));
+    }
+
+    @Test
+    public void templatesRenderingTypeNamesAreUnique() {
+        for (String template : Arrays.asList(
+                "{{schema.fullname}}.avsc",
+                "out/{{ schema.namespace }}.{{ schema.name }}.avsc",
+                "{{ schema.namespace | replace('.', '/') }}/{{ schema.name }}.avsc")) {
+            assertTrue(template, TemplateName.compile(template).unique());
+        }
+        for (String template : Arrays.asList(
+                "{{ schema.namespace }}.avsc",
+                "{{ schema.name }}.avsc",
+                "{{ schema.fullname | replace('.', '') }}.avsc",
+                "{{ schema.namespace }}{{ schema.name }}.avsc",
+                "{{ schema.namespace | replace('.', '/') }}/{{ schema.name }}{{ schema.props.outputFileSuffix }}.avsc",
+                "{{ source.basename }}",
+                "{{ schema.fullname | lower }}.avsc")) {
+            assertFalse(template, TemplateName.compile(template).unique());
+        }
+    }
+}
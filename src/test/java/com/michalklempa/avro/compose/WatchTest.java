@@ -0,0 +1,157 @@
+package com.michalklempa.avro.compose;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class WatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void excludedAndIgnoredDirectoriesAreNotWatched() throws Exception {
+        File root = folder.getRoot();
+        for (String directory : Arrays.asList("schemas/nested", "target/classes", ".git/objects", "out/ns", "skipped")) {
+            new File(root, directory).mkdirs();
+        }
+        Discovery discovery = new Discovery(Discovery.DEFAULT_INCLUDES, Arrays.asList(".*", "target", "skipped"));
+        Watch watch = new Watch(Collections.singletonList(root.getPath()), discovery, Arrays.asList(new File(root, "out").getPath(), null), 1, Collections.emptyMap(), (all, changed, removed) -> {
+        });
+
+        List<Path> watched = watch.directories(root.toPath(), root.toPath());
+        assertEquals(new HashSet<>(Arrays.asList(root.toPath(), root.toPath().resolve("schemas"), root.toPath().resolve("schemas/nested"))), new HashSet<>(watched));
+    }
+
+    private static Thread start(final Watch watch) {
+        Thread thread = new Thread(() -> {
+            try {
+                watch.run();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * The watch service may not be registered yet, writes until the change is noticed.
+     */
+    private static <T> T change(final Path path, final byte[] content, final BlockingQueue<T> rounds) throws Exception {
+        T round = null;
+        while (round == null) {
+            Files.write(path, content);
+            round = rounds.poll(500, TimeUnit.MILLISECONDS);
+        }
+        return round;
+    }
+
+    private static void archive(final File archive, final String entry, final String json) throws IOException {
+        archive.getParentFile().mkdirs();
+        File temporary = new File(archive.getPath() + ".tmp");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(temporary))) {
+            zip.putNextEntry(new ZipEntry(entry));
+            zip.write(json.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Test(timeout = 30000)
+    public void changedArchiveIsRecomposedWithItsDependents() throws Exception {
+        File jar = new File(folder.getRoot(), "lib/schemas.jar");
+        archive(jar, "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        File src = folder.newFolder("src");
+        ComposeTest.write(src, "b.avsc", ComposeTest.record("ns.B", "\"ns.A\""));
+        ComposeTest.write(src, "c.avsc", ComposeTest.record("ns.C", "\"int\""));
+        List<String> inputs = Arrays.asList(jar.getPath(), src.getPath());
+        Discovery discovery = new Discovery();
+        Map<String, SchemaFile.Parsed> schemas = new Compose(discovery.files(inputs)).compose();
+
+        BlockingQueue<Map<String, SchemaFile.Parsed>> rounds = new LinkedBlockingQueue<>();
+        Thread thread = start(new Watch(inputs, discovery, Collections.emptyList(), 1, schemas, (all, changed, removed) -> rounds.add(changed)));
+        try {
+            Map<String, SchemaFile.Parsed> changed = null;
+            while (changed == null) {
+                archive(jar, "a.avsc", ComposeTest.record("ns.A", "\"long\""));
+                changed = rounds.poll(500, TimeUnit.MILLISECONDS);
+            }
+            assertEquals(new HashSet<>(Arrays.asList("ns.A", "ns.B")), changed.keySet());
+            assertEquals(jar.getPath() + "!/a.avsc", changed.get("ns.A").filename());
+            assertEquals("long", changed.get("ns.A").types().get("ns.A").getField("f0").schema().getName());
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void typesOfDeletedFileAreRemoved() throws Exception {
+        File root = folder.getRoot();
+        String a = ComposeTest.write(root, "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        String c = ComposeTest.write(root, "c.avsc", ComposeTest.record("ns.C", "\"int\""));
+        List<String> inputs = Collections.singletonList(root.getPath());
+        Discovery discovery = new Discovery();
+        Map<String, SchemaFile.Parsed> schemas = new Compose(discovery.files(inputs)).compose();
+
+        BlockingQueue<Map<String, SchemaFile.Parsed>> rounds = new LinkedBlockingQueue<>();
+        Thread thread = start(new Watch(inputs, discovery, Collections.emptyList(), 1, schemas, (all, changed, removed) -> rounds.add(removed)));
+        try {
+            assertEquals(Collections.emptySet(), change(new File(a).toPath(), ComposeTest.record("ns.A", "\"long\"").getBytes(StandardCharsets.UTF_8), rounds).keySet());
+            Files.delete(new File(c).toPath());
+            Map<String, SchemaFile.Parsed> removed = rounds.take();
+            while (removed.isEmpty()) {
+                // rounds of repeated writes above
+                removed = rounds.take();
+            }
+            assertEquals(Collections.singleton("ns.C"), removed.keySet());
+            assertEquals(c, removed.get("ns.C").filename());
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void changedFileIsRecomposedWithItsDependents() throws Exception {
+        File root = folder.getRoot();
+        String a = ComposeTest.write(root, "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        String b = ComposeTest.write(root, "b.avsc", ComposeTest.record("ns.B", "\"ns.A\""));
+        ComposeTest.write(root, "c.avsc", ComposeTest.record("ns.C", "\"int\""));
+        List<String> inputs = Collections.singletonList(root.getPath());
+        Discovery discovery = new Discovery();
+        Map<String, SchemaFile.Parsed> schemas = new Compose(discovery.files(inputs)).compose();
+
+        BlockingQueue<Map<String, SchemaFile.Parsed>> rounds = new LinkedBlockingQueue<>();
+        Thread thread = start(new Watch(inputs, discovery, Collections.emptyList(), 1, schemas, (all, changed, removed) -> rounds.add(changed)));
+        try {
+            Map<String, SchemaFile.Parsed> changed = change(new File(a).toPath(), ComposeTest.record("ns.A", "\"long\"").getBytes(StandardCharsets.UTF_8), rounds);
+            assertEquals(new HashSet<>(Arrays.asList("ns.A", "ns.B")), changed.keySet());
+            assertEquals(b, changed.get("ns.B").filename());
+            assertEquals("long", changed.get("ns.B").types().get("ns.B").getField("f0").schema().getField("f0").schema().getName());
+        } finally {
+            thread.interrupt();
+        }
+    }
+}
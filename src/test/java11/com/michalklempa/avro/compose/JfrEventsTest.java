@@ -0,0 +1,61 @@
+package com.michalklempa.avro.compose;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JfrEventsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<RecordedEvent> record(final String name, final String threshold) throws Exception {
+        String a = ComposeTest.write(folder.getRoot(), "a.avsc", ComposeTest.record("ns.A", "\"string\""));
+        String b = ComposeTest.write(folder.getRoot(), "b.avsc", ComposeTest.record("ns.B", "\"ns.A\""));
+
+        Path file = folder.getRoot().toPath().resolve("recording.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(name).withThreshold(Duration.parse(threshold));
+            recording.start();
+            new Compose(Arrays.asList(b, a)).compose();
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals(name)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void parseAttemptsAreRecordedWithDuration() throws Exception {
+        List<RecordedEvent> attempts = record("com.michalklempa.avro.compose.ParseAttempt", "PT0S");
+
+        assertEquals(2, attempts.size());
+        for (RecordedEvent attempt : attempts) {
+            assertTrue(attempt.getString("filename").endsWith(".avsc"));
+            assertEquals(attempt.getEndTime(), attempt.getStartTime().plus(attempt.getDuration()));
+            assertFalse(attempt.getDuration().isNegative());
+        }
+    }
+
+    @Test
+    public void eventsBelowThresholdAreNotCommitted() throws Exception {
+        assertTrue(record("com.michalklempa.avro.compose.ParseAttempt", "PT1H").isEmpty());
+    }
+}